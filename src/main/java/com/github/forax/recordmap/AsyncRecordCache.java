@@ -0,0 +1,287 @@
+package com.github.forax.recordmap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * An asynchronous loading cache on top of a {@link RecordMap}.
+ *
+ * Concurrent callers asking for the same missing key share a single load (single-flight),
+ * and the misses of all callers are batched into calls to a bulk loader.
+ * The hits are served without locking from an immutable copy of the loaded values,
+ * the copy is published again when enough values have been loaded or read since the last copy,
+ * so the cost of the copies is amortized. The other operations use a {@link ReentrantLock}
+ * instead of {@code synchronized} so virtual threads waiting for the lock are not pinned
+ * to their carrier thread.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public final class AsyncRecordCache<K, V> {
+  private final Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader;
+  private final Executor executor;
+  private final int maxBatchSize;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final RecordMap<K, V> values = new RecordMap<>();
+  private final HashMap<K, CompletableFuture<V>> inFlight = new HashMap<>();
+  private final ArrayList<K> pending = new ArrayList<>();
+  private boolean drainScheduled;
+
+  // an immutable copy of values, read without locking
+  private volatile RecordMap<K, V> published = new RecordMap<>();
+  private int unpublished;  // number of values loaded or read with the lock since the last copy
+
+  /**
+   * Creates a cache.
+   *
+   * @param bulkLoader a function that loads all the keys of a batch, a key missing from
+   *                   the returned map is completed with {@code null} and not cached.
+   * @param executor the executor used to run the bulk loader.
+   * @param maxBatchSize the maximum number of keys sent to one call of the bulk loader.
+   */
+  public AsyncRecordCache(Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader,
+                          Executor executor, int maxBatchSize) {
+    Objects.requireNonNull(bulkLoader);
+    Objects.requireNonNull(executor);
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize <= 0");
+    }
+    this.bulkLoader = bulkLoader;
+    this.executor = executor;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Creates a cache that runs the bulk loader in a new virtual thread for each batch.
+   *
+   * @param bulkLoader a function that loads all the keys of a batch.
+   * @param maxBatchSize the maximum number of keys sent to one call of the bulk loader.
+   * @return a new cache.
+   * @param <K> type of the key
+   * @param <V> type of the value
+   */
+  public static <K, V> AsyncRecordCache<K, V> of(Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader,
+                                                 int maxBatchSize) {
+    return new AsyncRecordCache<>(bulkLoader, command -> Thread.ofVirtual().start(command), maxBatchSize);
+  }
+
+  /**
+   * Returns the value associated to the key, loading it if necessary.
+   *
+   * @param key the key
+   * @return a future completed with the value or {@code null} if the loader has no value for the key.
+   */
+  public CompletableFuture<V> get(K key) {
+    Objects.requireNonNull(key);
+    var publishedValue = published.get(key);
+    if (publishedValue != null) {
+      return CompletableFuture.completedFuture(publishedValue);
+    }
+    boolean schedule;
+    CompletableFuture<V> future;
+    lock.lock();
+    try {
+      var value = values.get(key);
+      if (value != null) {
+        publishIfNeeded(1);
+        return CompletableFuture.completedFuture(value);
+      }
+      future = inFlight.get(key);
+      if (future != null) {
+        return future;
+      }
+      future = new CompletableFuture<>();
+      inFlight.put(key, future);
+      pending.add(key);
+      schedule = !drainScheduled;
+      drainScheduled = true;
+    } finally {
+      lock.unlock();
+    }
+    if (schedule) {
+      try {
+        executor.execute(this::drain);
+      } catch (RuntimeException e) {
+        // the executor rejects the task, no drain will run so fail all the pending keys
+        for (var pendingFuture : failPending()) {
+          pendingFuture.completeExceptionally(e);
+        }
+      }
+    }
+    return future;
+  }
+
+  private List<CompletableFuture<V>> failPending() {
+    var futures = new ArrayList<CompletableFuture<V>>();
+    lock.lock();
+    try {
+      for (var key : pending) {
+        futures.add(inFlight.remove(key));
+      }
+      pending.clear();
+      drainScheduled = false;
+    } finally {
+      lock.unlock();
+    }
+    return futures;
+  }
+
+  // publishes a new copy of the values once the number of values not served by the copy
+  // is greater than the size of the copy, so each value is copied a constant number of times on average
+  private void publishIfNeeded(int count) {
+    unpublished += count;
+    var copy = published;
+    if (unpublished < Math.max(16, copy.size())) {
+      return;
+    }
+    var newCopy = new RecordMap<K, V>(values.size());
+    for (var entry : values) {
+      newCopy.put(entry.key(), entry.value());
+    }
+    published = newCopy;
+    unpublished = 0;
+  }
+
+  /**
+   * Returns the values associated to the keys, the keys not already loaded or loading
+   * are loaded together.
+   *
+   * @param keys the keys
+   * @return a future completed with a map containing the keys that have a value.
+   */
+  public CompletableFuture<RecordMap<K, V>> getAll(Collection<? extends K> keys) {
+    Objects.requireNonNull(keys);
+    var futures = new ArrayList<CompletableFuture<V>>(keys.size());
+    var keyList = List.copyOf(keys);
+    for (var key : keyList) {
+      futures.add(get(key));
+    }
+    return CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new))
+        .thenApply(__ -> {
+          var result = new RecordMap<K, V>();
+          for (var i = 0; i < keyList.size(); i++) {
+            var value = futures.get(i).join();
+            if (value != null) {
+              result.put(keyList.get(i), value);
+            }
+          }
+          return result;
+        });
+  }
+
+  /**
+   * Returns the value associated to the key if it is already loaded.
+   *
+   * @param key the key
+   * @return the value or {@code null}.
+   */
+  public V getIfPresent(K key) {
+    Objects.requireNonNull(key);
+    var publishedValue = published.get(key);
+    if (publishedValue != null) {
+      return publishedValue;
+    }
+    lock.lock();
+    try {
+      var value = values.get(key);
+      if (value != null) {
+        publishIfNeeded(1);
+      }
+      return value;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of loaded values.
+   * @return the number of loaded values.
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return values.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void drain() {
+    for(;;) {
+      List<K> batch;
+      lock.lock();
+      try {
+        if (pending.isEmpty()) {
+          drainScheduled = false;
+          return;
+        }
+        var batchSize = Math.min(pending.size(), maxBatchSize);
+        var view = pending.subList(0, batchSize);
+        batch = List.copyOf(view);
+        view.clear();
+      } finally {
+        lock.unlock();
+      }
+      load(batch);
+    }
+  }
+
+  private void load(List<K> batch) {
+    Map<? extends K, ? extends V> result;
+    try {
+      result = bulkLoader.apply(Set.copyOf(batch));
+    } catch (RuntimeException | Error e) {
+      var futures = complete(batch, null);
+      for (var future : futures) {
+        future.completeExceptionally(e);
+      }
+      return;
+    }
+    if (result == null) {
+      var futures = complete(batch, null);
+      var exception = new NullPointerException("bulk loader returns null");
+      for (var future : futures) {
+        future.completeExceptionally(exception);
+      }
+      return;
+    }
+    var futures = complete(batch, result);
+    for (var i = 0; i < batch.size(); i++) {
+      futures.get(i).complete(result.get(batch.get(i)));
+    }
+  }
+
+  // remove the futures from in flight and register the loaded values,
+  // the futures are completed outside the lock by the caller
+  private List<CompletableFuture<V>> complete(List<K> batch, Map<? extends K, ? extends V> result) {
+    var futures = new ArrayList<CompletableFuture<V>>(batch.size());
+    lock.lock();
+    try {
+      var loaded = 0;
+      for (var key : batch) {
+        futures.add(inFlight.remove(key));
+        if (result != null) {
+          var value = result.get(key);
+          if (value != null) {
+            values.put(key, value);
+            loaded++;
+          }
+        }
+      }
+      publishIfNeeded(loaded);
+    } finally {
+      lock.unlock();
+    }
+    return futures;
+  }
+}
@@ -0,0 +1,439 @@
+package com.github.forax.recordmap;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+
+/**
+ * A map whose keys are sequences of bytes, that can be queried with a slice of a byte array
+ * or of a {@link ByteBuffer} without copying the key.
+ *
+ * The bytes of all the keys are copied in one byte array (an arena), next to the dense arrays of
+ * the starts, the lengths and the hashes of the keys and the array of the values.
+ * Like {@link RecordMap}, the dense arrays are indexed by an open addressing table of offsets.
+ * A lookup hashes the bytes in place, 8 bytes at a time, and compares them to the bytes
+ * of the arena with {@link Arrays#equals(byte[], int, int, byte[], int, int)} (which is vectorized)
+ * or 8 bytes at a time for a direct buffer, so a lookup does not allocate.
+ * The position of the buffers are not used and not changed.
+ *
+ * @param <V> type of the value
+ */
+public final class BinaryKeyRecordMap<V> {
+  private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private int size;
+  private int[] offsets;
+  private byte[] arena;
+  private int arenaSize;
+  private int[] starts;
+  private int[] lengths;
+  private int[] hashes;
+  private V[] values;
+
+  /**
+   * Creates an empty map.
+   */
+  public BinaryKeyRecordMap() {
+    this(8);
+  }
+
+  /**
+   * Creates an empty map able to store {@code expectedSize} keys without being resized.
+   *
+   * @param expectedSize the number of keys
+   * @throws IllegalArgumentException if {@code expectedSize} is negative.
+   */
+  @SuppressWarnings("unchecked")
+  public BinaryKeyRecordMap(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("expectedSize < 0");
+    }
+    var capacity = Math.max(8, Integer.highestOneBit(Math.max(1, expectedSize - 1)) << 1);
+    offsets = new int[capacity << 1];
+    arena = new byte[capacity << 3];
+    starts = new int[capacity];
+    lengths = new int[capacity];
+    hashes = new int[capacity];
+    values = (V[]) new Object[capacity];
+  }
+
+  private static int mix(long hash) {
+    // murmur3 fmix64, so the first bytes of each group of 8 bytes change the lower bits
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return (int) hash;
+  }
+
+  private static int hash(byte[] array, int offset, int length) {
+    var hash = (long) length;
+    var i = 0;
+    for (; i <= length - 8; i += 8) {
+      hash = (hash + (long) LONGS.get(array, offset + i)) * 0x9E3779B97F4A7C15L;
+    }
+    for (; i < length; i++) {
+      hash = (hash + array[offset + i]) * 0x9E3779B97F4A7C15L;
+    }
+    return mix(hash);
+  }
+
+  private static long getLong(ByteBuffer buffer, int index) {
+    var value = buffer.getLong(index);
+    return buffer.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value);
+  }
+
+  // must return the same value as hash(byte[], int, int) for the same bytes
+  private static int hash(ByteBuffer buffer, int offset, int length) {
+    if (buffer.hasArray()) {
+      return hash(buffer.array(), buffer.arrayOffset() + offset, length);
+    }
+    var hash = (long) length;
+    var i = 0;
+    for (; i <= length - 8; i += 8) {
+      hash = (hash + getLong(buffer, offset + i)) * 0x9E3779B97F4A7C15L;
+    }
+    for (; i < length; i++) {
+      hash = (hash + buffer.get(offset + i)) * 0x9E3779B97F4A7C15L;
+    }
+    return mix(hash);
+  }
+
+  private boolean equalsAt(int position, ByteBuffer buffer, int offset, int length) {
+    var start = starts[position];
+    var i = 0;
+    for (; i <= length - 8; i += 8) {
+      if ((long) LONGS.get(arena, start + i) != getLong(buffer, offset + i)) {
+        return false;
+      }
+    }
+    for (; i < length; i++) {
+      if (arena[start + i] != buffer.get(offset + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of keys.
+   * @return the number of keys.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the map is empty.
+   * @return true if the map is empty.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private void rehash() {
+    var offsets = new int[this.offsets.length << 1];
+    loop: for (var i = 0; i < size; i++) {
+      var index = hashes[i] & (offsets.length - 1);
+      for (;;) {
+        if (offsets[index] == 0) {
+          offsets[index] = i + 1;
+          continue loop;
+        }
+        // FIXME this will create clusters
+        index = (index + 1) & (offsets.length - 1);
+      }
+    }
+    this.offsets = offsets;
+    var length = starts.length << 1;
+    starts = Arrays.copyOf(starts, length);
+    lengths = Arrays.copyOf(lengths, length);
+    hashes = Arrays.copyOf(hashes, length);
+    values = Arrays.copyOf(values, length);
+  }
+
+  // returns the start of the key in the arena
+  private int allocate(int length) {
+    if (arena.length - arenaSize < length) {
+      arena = Arrays.copyOf(arena, Math.max(arena.length << 1, arenaSize + length));
+    }
+    var start = arenaSize;
+    arenaSize += length;
+    return start;
+  }
+
+  // returns the offset index of the key or -index - 1 if the key is not present
+  private int slot(byte[] array, int offset, int length, int hash) {
+    var index = hash & (offsets.length - 1);
+    int position;
+    for (;;) {
+      if ((position = offsets[index] - 1) == -1) {
+        return -index - 1;
+      }
+      var start = starts[position];
+      if (hashes[position] == hash && lengths[position] == length &&
+          Arrays.equals(arena, start, start + length, array, offset, offset + length)) {
+        return index;
+      }
+      // FIXME this will create clusters
+      index = (index + 1) & (offsets.length - 1);
+    }
+  }
+
+  // returns the offset index of the key or -index - 1 if the key is not present
+  private int slot(ByteBuffer buffer, int offset, int length, int hash) {
+    if (buffer.hasArray()) {
+      return slot(buffer.array(), buffer.arrayOffset() + offset, length, hash);
+    }
+    var index = hash & (offsets.length - 1);
+    int position;
+    for (;;) {
+      if ((position = offsets[index] - 1) == -1) {
+        return -index - 1;
+      }
+      if (hashes[position] == hash && lengths[position] == length && equalsAt(position, buffer, offset, length)) {
+        return index;
+      }
+      // FIXME this will create clusters
+      index = (index + 1) & (offsets.length - 1);
+    }
+  }
+
+  // returns the position of the new key, the bytes of the key are not copied yet
+  private int insert(int slot, int length, int hash, V value) {
+    var index = -slot - 1;
+    if (size == starts.length) {
+      rehash();
+      index = hash & (offsets.length - 1);
+      while (offsets[index] != 0) {
+        // FIXME this will create clusters
+        index = (index + 1) & (offsets.length - 1);
+      }
+    }
+    var position = size;
+    starts[position] = allocate(length);
+    lengths[position] = length;
+    hashes[position] = hash;
+    values[position] = value;
+    offsets[index] = ++size;
+    return position;
+  }
+
+  private V replace(int slot, V value) {
+    var position = offsets[slot] - 1;
+    var oldValue = values[position];
+    values[position] = value;
+    return oldValue;
+  }
+
+  /**
+   * Associates a value to the bytes of a slice of an array, the bytes are copied.
+   *
+   * @param array the array containing the key
+   * @param offset the index of the first byte of the key
+   * @param length the number of bytes of the key
+   * @param value the value
+   * @return the previous value or null.
+   * @throws IndexOutOfBoundsException if the slice is not inside the array.
+   */
+  public V put(byte[] array, int offset, int length, V value) {
+    Objects.checkFromIndexSize(offset, length, array.length);
+    Objects.requireNonNull(value);
+    var hash = hash(array, offset, length);
+    var slot = slot(array, offset, length, hash);
+    if (slot >= 0) {
+      return replace(slot, value);
+    }
+    var position = insert(slot, length, hash, value);
+    System.arraycopy(array, offset, arena, starts[position], length);
+    return null;
+  }
+
+  /**
+   * Associates a value to the bytes of an array, the bytes are copied.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the previous value or null.
+   */
+  public V put(byte[] key, V value) {
+    return put(key, 0, key.length, value);
+  }
+
+  /**
+   * Associates a value to the bytes of a slice of a buffer, the bytes are copied.
+   *
+   * @param buffer the buffer containing the key
+   * @param offset the index of the first byte of the key
+   * @param length the number of bytes of the key
+   * @param value the value
+   * @return the previous value or null.
+   * @throws IndexOutOfBoundsException if the slice is not inside the limit of the buffer.
+   */
+  public V put(ByteBuffer buffer, int offset, int length, V value) {
+    Objects.checkFromIndexSize(offset, length, buffer.limit());
+    Objects.requireNonNull(value);
+    var hash = hash(buffer, offset, length);
+    var slot = slot(buffer, offset, length, hash);
+    if (slot >= 0) {
+      return replace(slot, value);
+    }
+    var position = insert(slot, length, hash, value);
+    buffer.get(offset, arena, starts[position], length);
+    return null;
+  }
+
+  /**
+   * Returns the position of a key stored in a slice of an array.
+   *
+   * @param array the array containing the key
+   * @param offset the index of the first byte of the key
+   * @param length the number of bytes of the key
+   * @return the position of the key or -1 if the key is not present.
+   * @throws IndexOutOfBoundsException if the slice is not inside the array.
+   */
+  public int indexOf(byte[] array, int offset, int length) {
+    Objects.checkFromIndexSize(offset, length, array.length);
+    var slot = slot(array, offset, length, hash(array, offset, length));
+    return slot < 0 ? -1 : offsets[slot] - 1;
+  }
+
+  /**
+   * Returns the position of a key stored in a slice of a buffer.
+   *
+   * @param buffer the buffer containing the key
+   * @param offset the index of the first byte of the key
+   * @param length the number of bytes of the key
+   * @return the position of the key or -1 if the key is not present.
+   * @throws IndexOutOfBoundsException if the slice is not inside the limit of the buffer.
+   */
+  public int indexOf(ByteBuffer buffer, int offset, int length) {
+    Objects.checkFromIndexSize(offset, length, buffer.limit());
+    var slot = slot(buffer, offset, length, hash(buffer, offset, length));
+    return slot < 0 ? -1 : offsets[slot] - 1;
+  }
+
+  /**
+   * Returns the value associated to the bytes of an array.
+   *
+   * @param key the key
+   * @return the value associated to the key or null.
+   */
+  public V get(byte[] key) {
+    return get(key, 0, key.length);
+  }
+
+  /**
+   * Returns the value associated to the bytes of a slice of an array.
+   *
+   * @param array the array containing the key
+   * @param offset the index of the first byte of the key
+   * @param length the number of bytes of the key
+   * @return the value associated to the key or null.
+   * @throws IndexOutOfBoundsException if the slice is not inside the array.
+   */
+  public V get(byte[] array, int offset, int length) {
+    var index = indexOf(array, offset, length);
+    return index == -1 ? null : values[index];
+  }
+
+  /**
+   * Returns the value associated to the bytes of a slice of a buffer.
+   *
+   * @param buffer the buffer containing the key
+   * @param offset the index of the first byte of the key
+   * @param length the number of bytes of the key
+   * @return the value associated to the key or null.
+   * @throws IndexOutOfBoundsException if the slice is not inside the limit of the buffer.
+   */
+  public V get(ByteBuffer buffer, int offset, int length) {
+    var index = indexOf(buffer, offset, length);
+    return index == -1 ? null : values[index];
+  }
+
+  /**
+   * Returns true if the bytes of an array are a key of the map.
+   *
+   * @param key the key
+   * @return true if the key is present.
+   */
+  public boolean containsKey(byte[] key) {
+    return indexOf(key, 0, key.length) != -1;
+  }
+
+  /**
+   * Returns true if the bytes of a slice of a buffer are a key of the map.
+   *
+   * @param buffer the buffer containing the key
+   * @param offset the index of the first byte of the key
+   * @param length the number of bytes of the key
+   * @return true if the key is present.
+   * @throws IndexOutOfBoundsException if the slice is not inside the limit of the buffer.
+   */
+  public boolean containsKey(ByteBuffer buffer, int offset, int length) {
+    return indexOf(buffer, offset, length) != -1;
+  }
+
+  /**
+   * Returns a copy of the key at a position.
+   *
+   * @param index the position
+   * @return a copy of the bytes of the key at the position.
+   */
+  public byte[] keyAt(int index) {
+    Objects.checkIndex(index, size);
+    var start = starts[index];
+    return Arrays.copyOfRange(arena, start, start + lengths[index]);
+  }
+
+  /**
+   * Returns a read only buffer on the bytes of the key at a position.
+   *
+   * @param index the position
+   * @return a read only buffer on the key at the position.
+   */
+  public ByteBuffer keyBufferAt(int index) {
+    Objects.checkIndex(index, size);
+    return ByteBuffer.wrap(arena, starts[index], lengths[index]).slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns the value at a position.
+   *
+   * @param index the position
+   * @return the value at the position.
+   */
+  public V valueAt(int index) {
+    Objects.checkIndex(index, size);
+    return values[index];
+  }
+
+  /**
+   * Calls the action with a copy of each key and its value, in insertion order.
+   *
+   * @param action the action
+   */
+  public void forEach(BiConsumer<? super byte[], ? super V> action) {
+    Objects.requireNonNull(action);
+    for (var i = 0; i < size; i++) {
+      action.accept(keyAt(i), values[i]);
+    }
+  }
+
+  @Override
+  public String toString() {
+    var hexFormat = HexFormat.of();
+    var joiner = new StringJoiner(", ", "{", "}");
+    for (var i = 0; i < size; i++) {
+      joiner.add(hexFormat.formatHex(arena, starts[i], starts[i] + lengths[i]) + "=" + values[i]);
+    }
+    return joiner.toString();
+  }
+}
@@ -0,0 +1,752 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A {@link RecordMap} that survives a crash, the result of each update is appended to a write-ahead log.
+ *
+ * Each update ({@link #put(Object, Object) put}, {@link #merge(Object, Object, BiFunction) merge},
+ * {@link #replace(Object, Object) replace} or {@link #compute(Object, BiFunction) compute}) appends
+ * the key and the new value as a record (length, CRC32, payload) to the log.
+ * The records are group committed, they are written and the log is forced to the disk every
+ * {@code syncBatchSize} updates, so a crash loses at most the last {@code syncBatchSize - 1} updates.
+ * {@link #sync()} forces the pending updates to the disk.
+ *
+ * If the log can not be written, it is truncated to its last valid record and the updates
+ * stay pending, they are written again with the next batch. If the log can not be truncated,
+ * the map rejects the updates with an {@link IllegalStateException}.
+ *
+ * {@link #compact()} starts a new log and writes a snapshot of the entries in the background,
+ * the old log is deleted once the snapshot is on the disk. A compaction is also started
+ * automatically when the log is bigger than {@code maxLogSize}.
+ * {@link #open(Path, Codec, Codec, int, long)} recovers the map by reading the snapshot and streaming
+ * the records of the logs, a torn record at the end of a log is discarded.
+ *
+ * All the methods are thread safe.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public final class DurableRecordMap<K, V> implements Closeable {
+  /**
+   * Encodes and decodes the keys or the values of a {@link DurableRecordMap}.
+   *
+   * @param <T> the type of the encoded values.
+   */
+  public interface Codec<T> {
+    /**
+     * Writes a value.
+     *
+     * @param output the output
+     * @param value the value, never null.
+     * @throws IOException if an I/O error occurs.
+     */
+    void write(DataOutput output, T value) throws IOException;
+
+    /**
+     * Reads a value written by {@link #write(DataOutput, Object)}.
+     *
+     * @param input the input
+     * @return the value read.
+     * @throws IOException if an I/O error occurs.
+     */
+    T read(DataInput input) throws IOException;
+
+    /**
+     * Returns a codec of strings encoded in modified UTF-8, at most 65535 bytes.
+     * @return a codec of strings.
+     */
+    static Codec<String> ofString() {
+      return new Codec<>() {
+        @Override
+        public void write(DataOutput output, String value) throws IOException {
+          output.writeUTF(value);
+        }
+
+        @Override
+        public String read(DataInput input) throws IOException {
+          return input.readUTF();
+        }
+      };
+    }
+
+    /**
+     * Returns a codec of integers encoded on 4 bytes.
+     * @return a codec of integers.
+     */
+    static Codec<Integer> ofInteger() {
+      return new Codec<>() {
+        @Override
+        public void write(DataOutput output, Integer value) throws IOException {
+          output.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput input) throws IOException {
+          return input.readInt();
+        }
+      };
+    }
+
+    /**
+     * Returns a codec of longs encoded on 8 bytes.
+     * @return a codec of longs.
+     */
+    static Codec<Long> ofLong() {
+      return new Codec<>() {
+        @Override
+        public void write(DataOutput output, Long value) throws IOException {
+          output.writeLong(value);
+        }
+
+        @Override
+        public Long read(DataInput input) throws IOException {
+          return input.readLong();
+        }
+      };
+    }
+  }
+
+  private static final String SNAPSHOT = "snapshot";
+  private static final String SNAPSHOT_TMP = "snapshot.tmp";
+  private static final String LOG_PREFIX = "log-";
+  private static final int SNAPSHOT_MAGIC = 0x524d5331;  // RMS1
+  private static final int RECORD_HEADER_SIZE = 8;  // length + CRC32
+  private static final int MAX_SNAPSHOT_SIZE = 1 << 29;
+  private static final long DEFAULT_MAX_LOG_SIZE = 256L << 20;  // 256 MB
+
+  // opens the channel of a log, replaced by the tests to simulate I/O errors
+  interface LogOpener {
+    FileChannel open(Path path) throws IOException;
+  }
+
+  private static final LogOpener DEFAULT_LOG_OPENER = path -> FileChannel.open(path, CREATE, READ, WRITE);
+
+  // a byte array output stream that gives access to its buffer
+  private static final class Buffer extends ByteArrayOutputStream {
+    private void truncate(int size) {
+      count = size;
+    }
+
+    private void patchInt(int position, int value) {
+      buf[position] = (byte) (value >>> 24);
+      buf[position + 1] = (byte) (value >>> 16);
+      buf[position + 2] = (byte) (value >>> 8);
+      buf[position + 3] = (byte) value;
+    }
+
+    private int crc(int position, int length) {
+      var crc = new CRC32();
+      crc.update(buf, position, length);
+      return (int) crc.getValue();
+    }
+
+    private ByteBuffer asByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+
+  private final Path directory;
+  private final Codec<K> keyCodec;
+  private final Codec<V> valueCodec;
+  private final int syncBatchSize;
+  private final long maxLogSize;
+  private final LogOpener logOpener;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final RecordMap<K, V> map;
+  private final Buffer buffer = new Buffer();
+  private final DataOutputStream output = new DataOutputStream(buffer);
+  private FileChannel log;
+  private long logSize;  // length of the valid records of the log
+  private long generation;
+  private int pending;
+  private CompletableFuture<Void> compaction;
+  private IOException failure;  // the log can not be repaired
+  private boolean closed;
+
+  private DurableRecordMap(Path directory, Codec<K> keyCodec, Codec<V> valueCodec, int syncBatchSize,
+                           long maxLogSize, LogOpener logOpener,
+                           RecordMap<K, V> map, FileChannel log, long logSize, long generation) {
+    this.directory = directory;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.syncBatchSize = syncBatchSize;
+    this.maxLogSize = maxLogSize;
+    this.logOpener = logOpener;
+    this.map = map;
+    this.log = log;
+    this.logSize = logSize;
+    this.generation = generation;
+  }
+
+  private record Snapshot<K, V>(long generation, RecordMap<K, V> map) {}
+
+  /**
+   * Opens a durable map stored in a directory, recovering its entries if the directory
+   * already contains a snapshot or a log.
+   * A compaction is started automatically when the log is bigger than 256 MB.
+   *
+   * @param directory the directory that stores the snapshot and the logs, created if it does not exist.
+   * @param keyCodec the codec of the keys
+   * @param valueCodec the codec of the values
+   * @param syncBatchSize the number of updates written and forced to the disk together,
+   *                      1 means that each update is on the disk when the method returns.
+   * @return a new durable map.
+   * @param <K> type of the key
+   * @param <V> type of the value
+   * @throws IOException if an I/O error occurs or if the snapshot is corrupted.
+   */
+  public static <K, V> DurableRecordMap<K, V> open(Path directory, Codec<K> keyCodec, Codec<V> valueCodec,
+                                                   int syncBatchSize) throws IOException {
+    return open(directory, keyCodec, valueCodec, syncBatchSize, DEFAULT_MAX_LOG_SIZE);
+  }
+
+  /**
+   * Opens a durable map stored in a directory, recovering its entries if the directory
+   * already contains a snapshot or a log.
+   *
+   * @param directory the directory that stores the snapshot and the logs, created if it does not exist.
+   * @param keyCodec the codec of the keys
+   * @param valueCodec the codec of the values
+   * @param syncBatchSize the number of updates written and forced to the disk together,
+   *                      1 means that each update is on the disk when the method returns.
+   * @param maxLogSize the size in bytes of the log that starts a compaction.
+   * @return a new durable map.
+   * @param <K> type of the key
+   * @param <V> type of the value
+   * @throws IOException if an I/O error occurs or if the snapshot is corrupted.
+   */
+  public static <K, V> DurableRecordMap<K, V> open(Path directory, Codec<K> keyCodec, Codec<V> valueCodec,
+                                                   int syncBatchSize, long maxLogSize) throws IOException {
+    return open(directory, keyCodec, valueCodec, syncBatchSize, maxLogSize, DEFAULT_LOG_OPENER);
+  }
+
+  static <K, V> DurableRecordMap<K, V> open(Path directory, Codec<K> keyCodec, Codec<V> valueCodec,
+                                            int syncBatchSize, long maxLogSize, LogOpener logOpener) throws IOException {
+    Objects.requireNonNull(directory);
+    Objects.requireNonNull(keyCodec);
+    Objects.requireNonNull(valueCodec);
+    Objects.requireNonNull(logOpener);
+    if (syncBatchSize <= 0) {
+      throw new IllegalArgumentException("syncBatchSize <= 0");
+    }
+    if (maxLogSize <= 0) {
+      throw new IllegalArgumentException("maxLogSize <= 0");
+    }
+    Files.createDirectories(directory);
+    Files.deleteIfExists(directory.resolve(SNAPSHOT_TMP));
+
+    // the map is presized with the snapshot, the records of the logs can update the same keys
+    // so the map grows only if the logs contain new keys
+    var snapshot = readSnapshot(directory.resolve(SNAPSHOT), keyCodec, valueCodec);
+    var generation = snapshot.generation;
+    var map = snapshot.map;
+
+    // the logs older than the snapshot were not deleted before a crash
+    var lastGeneration = generation;
+    var lastLength = 0L;
+    for (var logGeneration : logGenerations(directory)) {
+      var path = logPath(directory, logGeneration);
+      if (logGeneration < generation) {
+        Files.delete(path);
+        continue;
+      }
+      lastLength = replay(path, keyCodec, valueCodec, map);
+      lastGeneration = logGeneration;
+    }
+
+    var log = logOpener.open(logPath(directory, lastGeneration));
+    log.truncate(lastLength);  // discard a torn record
+    log.position(lastLength);
+    return new DurableRecordMap<>(directory, keyCodec, valueCodec, syncBatchSize, maxLogSize, logOpener,
+        map, log, lastLength, lastGeneration);
+  }
+
+  private static Path logPath(Path directory, long generation) {
+    return directory.resolve(LOG_PREFIX + generation);
+  }
+
+  private static List<Long> logGenerations(Path directory) throws IOException {
+    try (var stream = Files.list(directory)) {
+      return stream
+          .map(path -> path.getFileName().toString())
+          .filter(name -> name.startsWith(LOG_PREFIX))
+          .map(name -> Long.parseLong(name.substring(LOG_PREFIX.length())))
+          .sorted()
+          .toList();
+    }
+  }
+
+  // the generation of the snapshot is the generation of the first log not included in the snapshot
+  private static <K, V> Snapshot<K, V> readSnapshot(Path path, Codec<K> keyCodec, Codec<V> valueCodec)
+      throws IOException {
+    if (!Files.exists(path)) {
+      return new Snapshot<>(0, new RecordMap<>());
+    }
+    var checkedInput = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(path)), new CRC32());
+    try (var input = new DataInputStream(checkedInput)) {
+      if (input.readInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("invalid snapshot " + path);
+      }
+      var generation = input.readLong();
+      var size = input.readInt();
+      if (size < 0 || size > MAX_SNAPSHOT_SIZE) {
+        throw new IOException("corrupted snapshot " + path);
+      }
+      var map = new RecordMap<K, V>(size);
+      for (var i = 0; i < size; i++) {
+        map.put(keyCodec.read(input), valueCodec.read(input));
+      }
+      var crc = checkedInput.getChecksum().getValue();
+      if (input.readLong() != crc) {
+        throw new IOException("corrupted snapshot " + path);
+      }
+      return new Snapshot<>(generation, map);
+    } catch (EOFException e) {
+      throw new IOException("truncated snapshot " + path, e);
+    }
+  }
+
+  // streams the valid records of a log into the map, returns the length of the valid prefix of the log
+  private static <K, V> long replay(Path path, Codec<K> keyCodec, Codec<V> valueCodec, RecordMap<K, V> map)
+      throws IOException {
+    var fileSize = Files.size(path);
+    try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+      var position = 0L;
+      var payload = new byte[256];
+      var crc = new CRC32();
+      for (;;) {
+        if (fileSize - position < RECORD_HEADER_SIZE) {
+          return position;
+        }
+        var length = input.readInt();
+        var checksum = input.readInt();
+        if (length < 0 || length > fileSize - position - RECORD_HEADER_SIZE) {
+          return position;
+        }
+        if (payload.length < length) {
+          payload = new byte[length];
+        }
+        input.readFully(payload, 0, length);
+        crc.reset();
+        crc.update(payload, 0, length);
+        if ((int) crc.getValue() != checksum) {
+          return position;
+        }
+        var record = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        // the records contain the result of the updates, so replaying a record twice is harmless
+        map.put(keyCodec.read(record), valueCodec.read(record));
+        position += RECORD_HEADER_SIZE + length;
+      }
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("closed");
+    }
+    if (failure != null) {
+      throw new IllegalStateException("the log can not be written", failure);
+    }
+  }
+
+  // writes the pending records and forces them to the disk,
+  // if an I/O error occurs, the log is truncated to its valid records and the records stay pending
+  private void flush() throws IOException {
+    if (buffer.size() != 0) {
+      try {
+        var byteBuffer = buffer.asByteBuffer();
+        while (byteBuffer.hasRemaining()) {
+          log.write(byteBuffer);
+        }
+        log.force(false);
+      } catch (IOException e) {
+        try {
+          log.truncate(logSize);
+          log.position(logSize);
+        } catch (IOException truncateException) {
+          e.addSuppressed(truncateException);
+          failure = e;
+        }
+        throw e;
+      }
+      logSize += buffer.size();
+      buffer.reset();
+    }
+    pending = 0;
+  }
+
+  // starts a compaction if the log is too big and no compaction is running,
+  // the updates are already on the disk so an error is reported by the future of the compaction
+  private void compactIfNeeded() {
+    if (logSize < maxLogSize || (compaction != null && !compaction.isDone())) {
+      return;
+    }
+    try {
+      startCompaction();
+    } catch (IOException e) {
+      compaction = CompletableFuture.failedFuture(e);
+    }
+  }
+
+  // encodes the record before updating the map, so a codec error leaves the map unchanged
+  private void encode(K key, V value) {
+    var start = buffer.size();
+    try {
+      output.writeLong(0);  // header, patched below
+      keyCodec.write(output, key);
+      valueCodec.write(output, value);
+    } catch (IOException e) {
+      buffer.truncate(start);
+      throw new UncheckedIOException(e);
+    } catch (RuntimeException e) {
+      buffer.truncate(start);
+      throw e;
+    }
+    var length = buffer.size() - start - RECORD_HEADER_SIZE;
+    buffer.patchInt(start, length);
+    buffer.patchInt(start + 4, buffer.crc(start + RECORD_HEADER_SIZE, length));
+  }
+
+  private void commit() {
+    if (++pending >= syncBatchSize) {
+      try {
+        flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      compactIfNeeded();
+    }
+  }
+
+  // stores the new value at the slot returned by find() and logs it
+  private void update(int slot, K key, V value) {
+    encode(key, value);
+    if (slot >= 0) {
+      map.setValueAt(slot, value);
+    } else {
+      map.insertAt(slot, key, value);
+    }
+    commit();
+  }
+
+  /**
+   * Returns the value associated to the key.
+   *
+   * @param key the key
+   * @return the value associated to the key or null.
+   */
+  public V get(Object key) {
+    Objects.requireNonNull(key);
+    lock.lock();
+    try {
+      return map.get(key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns true if the key is present.
+   *
+   * @param key the key
+   * @return true if the key is present.
+   */
+  public boolean containsKey(Object key) {
+    Objects.requireNonNull(key);
+    lock.lock();
+    try {
+      return map.containsKey(key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of entries.
+   * @return the number of entries.
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return map.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Calls the action on all the entries, in insertion order, while holding the lock.
+   *
+   * @param action the action
+   */
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    lock.lock();
+    try {
+      map.forEach(action);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Associates a value to a key and logs the update.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the previous value or null.
+   * @throws UncheckedIOException if the log can not be written.
+   */
+  public V put(K key, V value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    lock.lock();
+    try {
+      checkOpen();
+      var slot = map.find(key);
+      var previousValue = slot >= 0 ? map.valueAt(slot) : null;
+      update(slot, key, value);
+      return previousValue;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Replaces the value of a key if the key is present and logs the update.
+   *
+   * @param key the key
+   * @param value the new value
+   * @return the previous value or null if the key is not present.
+   * @throws UncheckedIOException if the log can not be written.
+   */
+  public V replace(K key, V value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    lock.lock();
+    try {
+      checkOpen();
+      var slot = map.find(key);
+      if (slot < 0) {
+        return null;
+      }
+      var previousValue = map.valueAt(slot);
+      update(slot, key, value);
+      return previousValue;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Associates the value to the key if the key is not present, otherwise associates the result
+   * of the function on the existing value and the value, and logs the update.
+   *
+   * @param key the key
+   * @param value the value
+   * @param function a function that combines the existing value and the value, should not return null.
+   * @return the new value.
+   * @throws UncheckedIOException if the log can not be written.
+   */
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> function) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    Objects.requireNonNull(function);
+    lock.lock();
+    try {
+      checkOpen();
+      var slot = map.find(key);
+      var newValue = slot >= 0 ? Objects.requireNonNull(function.apply(map.valueAt(slot), value)) : value;
+      update(slot, key, newValue);
+      return newValue;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Associates the result of the function on the key and the existing value (or null) to the key
+   * and logs the update.
+   *
+   * @param key the key
+   * @param function a function that computes the new value, should not return null.
+   * @return the new value.
+   * @throws UncheckedIOException if the log can not be written.
+   */
+  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(function);
+    lock.lock();
+    try {
+      checkOpen();
+      var slot = map.find(key);
+      var newValue = Objects.requireNonNull(function.apply(key, slot >= 0 ? map.valueAt(slot) : null));
+      update(slot, key, newValue);
+      return newValue;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes the pending updates to the log and forces them to the disk.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  public void sync() throws IOException {
+    lock.lock();
+    try {
+      checkOpen();
+      flush();
+      compactIfNeeded();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Starts a new log and writes a snapshot of the entries in the background, the old logs
+   * are deleted when the snapshot is on the disk.
+   * The updates are not blocked while the snapshot is written.
+   * If a compaction, started by this method or automatically, is already running, this method returns it.
+   *
+   * @return a future completed when the snapshot is written and the old logs are deleted.
+   * @throws IOException if the new log can not be created.
+   */
+  public CompletableFuture<Void> compact() throws IOException {
+    lock.lock();
+    try {
+      checkOpen();
+      if (compaction != null && !compaction.isDone()) {
+        return compaction;
+      }
+      return startCompaction();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private CompletableFuture<Void> startCompaction() throws IOException {
+    flush();
+    var newLog = logOpener.open(logPath(directory, generation + 1));
+    log.close();
+    log = newLog;
+    logSize = 0;
+    var snapshotGeneration = ++generation;
+    // the entries are immutable, so copying the references is enough to take a snapshot
+    @SuppressWarnings("unchecked")
+    var entries = (RecordEntry<K, V>[]) new RecordEntry<?, ?>[map.size()];
+    for (var i = 0; i < entries.length; i++) {
+      entries[i] = map.entryAt(i);
+    }
+    var future = new CompletableFuture<Void>();
+    Thread.ofVirtual().start(() -> {
+      try {
+        writeSnapshot(entries, snapshotGeneration);
+        future.complete(null);
+      } catch (IOException | RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    });
+    return compaction = future;
+  }
+
+  private void writeSnapshot(RecordEntry<K, V>[] entries, long snapshotGeneration) throws IOException {
+    var tmp = directory.resolve(SNAPSHOT_TMP);
+    try (var fileOutput = new FileOutputStream(tmp.toFile())) {
+      var checkedOutput = new CheckedOutputStream(new BufferedOutputStream(fileOutput), new CRC32());
+      var output = new DataOutputStream(checkedOutput);
+      output.writeInt(SNAPSHOT_MAGIC);
+      output.writeLong(snapshotGeneration);
+      output.writeInt(entries.length);
+      for (var entry : entries) {
+        keyCodec.write(output, entry.key());
+        valueCodec.write(output, entry.value());
+      }
+      output.writeLong(checkedOutput.getChecksum().getValue());
+      output.flush();
+      fileOutput.getChannel().force(true);
+    }
+    Files.move(tmp, directory.resolve(SNAPSHOT), ATOMIC_MOVE, REPLACE_EXISTING);
+    for (var logGeneration : logGenerations(directory)) {
+      if (logGeneration < snapshotGeneration) {
+        Files.delete(logPath(directory, logGeneration));
+      }
+    }
+  }
+
+  /**
+   * Waits for the running compaction, writes the pending updates to the disk and closes the log.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Override
+  public void close() throws IOException {
+    CompletableFuture<Void> compaction;
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      compaction = this.compaction;
+      try {
+        if (failure == null) {
+          flush();
+        }
+      } finally {
+        log.close();
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (compaction != null) {
+      compaction.exceptionally(e -> null).join();
+    }
+  }
+
+  @Override
+  public String toString() {
+    lock.lock();
+    try {
+      return map.toString();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,534 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A map whose entries expire after a time to live (TTL).
+ *
+ * Like {@link RecordMap}, the entries are stored in a dense array indexed by an open addressing
+ * table of offsets, the expiry time of each entry is stored in a {@code long[]} next to the entries.
+ * An expired entry is invisible to {@link #get(Object)}, {@link #containsKey(Object)} and the iteration
+ * even before being removed.
+ *
+ * The entries are also linked in a hierarchical timer wheel of 4 levels of 64 slots,
+ * a slot of the first level spans 2^20 ns (about 1 ms) and each level spans 64 times more
+ * than the previous one, so the wheel covers about 4.9 hours, entries expiring later are
+ * rescheduled when the last level turns.
+ * Each update advances the wheel to the current time, the entries of the slots that have elapsed
+ * are removed if they are expired or moved to a lower level otherwise,
+ * so each entry is visited at most once per level and the eviction costs O(1) amortized.
+ * {@link #cleanUp()} advances the wheel without updating the map.
+ * An entry is removed by shifting back the following offsets of its cluster (backward shift deletion)
+ * and by moving the last entry in its place, so the entries stay dense but are not in insertion order.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public final class ExpiringRecordMap<K, V> implements Iterable<RecordEntry<K, V>> {
+  private static final int TICK_SHIFT = 20;  // a tick is 2^20 ns
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int LEVELS = 4;
+  private static final int DETACHED = LEVELS * SLOTS;  // list of the entries of the slot being expired
+  private static final long MAX_TTL = Long.MAX_VALUE >> 1;  // so expiry - now never overflows
+
+  private final long ttl;
+  private final LongSupplier ticker;
+
+  private int size;
+  private int[] offsets;
+  private RecordEntry<K, V>[] entries;
+  private long[] expiries;
+  private int[] nexts;  // next entry in the same wheel slot or -1
+  private int[] prevs;  // previous entry in the same wheel slot or -1 - slot if the entry is the first
+  private final int[] heads = new int[DETACHED + 1];
+  private long currentTick;
+
+  /**
+   * Creates a map whose entries expire after a time to live, using {@link System#nanoTime()} as clock.
+   *
+   * @param ttl the default time to live of the entries.
+   * @throws IllegalArgumentException if the time to live is zero or negative.
+   */
+  public ExpiringRecordMap(Duration ttl) {
+    this(ttl, System::nanoTime);
+  }
+
+  /**
+   * Creates a map whose entries expire after a time to live, using a ticker as clock.
+   *
+   * @param ttl the default time to live of the entries.
+   * @param ticker a clock that returns a time in nanoseconds, like {@link System#nanoTime()}.
+   * @throws IllegalArgumentException if the time to live is zero or negative.
+   */
+  @SuppressWarnings("unchecked")
+  public ExpiringRecordMap(Duration ttl, LongSupplier ticker) {
+    Objects.requireNonNull(ticker);
+    this.ttl = ttlNanos(ttl);
+    this.ticker = ticker;
+    offsets = new int[16];
+    entries = (RecordEntry<K, V>[]) new RecordEntry<?, ?>[8];
+    expiries = new long[8];
+    nexts = new int[8];
+    prevs = new int[8];
+    Arrays.fill(heads, -1);
+    currentTick = ticker.getAsLong() >> TICK_SHIFT;
+  }
+
+  private static long ttlNanos(Duration ttl) {
+    Objects.requireNonNull(ttl);
+    if (ttl.isNegative() || ttl.isZero()) {
+      throw new IllegalArgumentException("invalid ttl " + ttl);
+    }
+    return ttl.compareTo(Duration.ofNanos(MAX_TTL)) >= 0 ? MAX_TTL : ttl.toNanos();
+  }
+
+  private boolean isExpired(int position, long now) {
+    return expiries[position] - now <= 0;
+  }
+
+  private void link(int position, int list) {
+    var next = heads[list];
+    nexts[position] = next;
+    prevs[position] = -1 - list;
+    if (next != -1) {
+      prevs[next] = position;
+    }
+    heads[list] = position;
+  }
+
+  private void unlink(int position) {
+    var prev = prevs[position];
+    var next = nexts[position];
+    if (prev < 0) {
+      heads[-1 - prev] = next;
+    } else {
+      nexts[prev] = next;
+    }
+    if (next != -1) {
+      prevs[next] = prev;
+    }
+  }
+
+  private void schedule(int position) {
+    var expiryTick = Math.max(expiries[position] >> TICK_SHIFT, currentTick);
+    var delta = expiryTick - currentTick;
+    if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+      // rescheduled when the last level turns
+      expiryTick = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+      delta = expiryTick - currentTick;
+    }
+    var level = 0;
+    while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+      level++;
+    }
+    link(position, level * SLOTS + (int) ((expiryTick >> (SLOT_BITS * level)) & (SLOTS - 1)));
+  }
+
+  private void expire(int list, long now) {
+    var head = heads[list];
+    if (head == -1) {
+      return;
+    }
+    heads[list] = -1;
+    heads[DETACHED] = head;
+    prevs[head] = -1 - DETACHED;
+    int position;
+    while ((position = heads[DETACHED]) != -1) {
+      unlink(position);
+      if (isExpired(position, now)) {
+        removeAt(position, slotOf(position));
+      } else {
+        schedule(position);
+      }
+    }
+  }
+
+  private void advance(long now, boolean force) {
+    var nowTick = now >> TICK_SHIFT;
+    var previousTick = currentTick;
+    if (nowTick - previousTick <= 0) {
+      if (!force) {
+        return;
+      }
+      nowTick = previousTick;
+    }
+    currentTick = nowTick;
+    for (var level = LEVELS - 1; level >= 0; level--) {
+      var shift = SLOT_BITS * level;
+      var first = (previousTick >> shift) + (level == 0 ? 0 : 1);
+      var count = Math.min((nowTick >> shift) - first + 1, SLOTS);
+      for (var i = 0L; i < count; i++) {
+        expire(level * SLOTS + (int) ((first + i) & (SLOTS - 1)), now);
+      }
+    }
+  }
+
+  /**
+   * Removes all the expired entries.
+   * The expired entries are also removed when the map is updated, so calling this method
+   * is only necessary if the map is not updated for a while or before calling {@link #size()}.
+   */
+  public void cleanUp() {
+    advance(ticker.getAsLong(), true);
+  }
+
+  // the entries are removed with a backward shift deletion that scans until the end of the cluster,
+  // so consecutive hash codes (Integer keys) must not form a long cluster
+  private static int hash(Object key) {
+    var hash = key.hashCode() * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  // returns the index of the key in the offsets or the index of the empty slot where the key should be inserted
+  private int slot(Object key) {
+    var index = hash(key) & (offsets.length - 1);
+    int offset;
+    for (;;) {
+      if ((offset = offsets[index]) == 0 || key.equals(entries[offset - 1].key())) {
+        return index;
+      }
+      // FIXME this will create clusters
+      index = (index + 1) & (offsets.length - 1);
+    }
+  }
+
+  private int slotOf(int position) {
+    var index = hash(entries[position].key()) & (offsets.length - 1);
+    while (offsets[index] != position + 1) {
+      index = (index + 1) & (offsets.length - 1);
+    }
+    return index;
+  }
+
+  // backward shift deletion, the entries of the cluster after the hole are moved back if possible
+  private void deleteSlot(int hole) {
+    var mask = offsets.length - 1;
+    var index = hole;
+    for (;;) {
+      index = (index + 1) & mask;
+      var offset = offsets[index];
+      if (offset == 0) {
+        break;
+      }
+      var ideal = hash(entries[offset - 1].key()) & mask;
+      if (((index - ideal) & mask) >= ((index - hole) & mask)) {
+        offsets[hole] = offset;
+        hole = index;
+      }
+    }
+    offsets[hole] = 0;
+  }
+
+  private void removeAt(int position, int index) {
+    deleteSlot(index);
+    var last = size - 1;
+    if (position != last) {
+      offsets[slotOf(last)] = position + 1;
+      entries[position] = entries[last];
+      expiries[position] = expiries[last];
+      var prev = prevs[last];
+      var next = nexts[last];
+      prevs[position] = prev;
+      nexts[position] = next;
+      if (prev < 0) {
+        heads[-1 - prev] = position;
+      } else {
+        nexts[prev] = position;
+      }
+      if (next != -1) {
+        prevs[next] = position;
+      }
+    }
+    entries[last] = null;
+    size--;
+  }
+
+  private void rehash() {
+    var offsets = new int[this.offsets.length << 1];
+    loop: for (var i = 0; i < size; i++) {
+      var index = hash(entries[i].key()) & (offsets.length - 1);
+      for (;;) {
+        if (offsets[index] == 0) {
+          offsets[index] = i + 1;
+          continue loop;
+        }
+        // FIXME this will create clusters
+        index = (index + 1) & (offsets.length - 1);
+      }
+    }
+    this.offsets = offsets;
+    var length = entries.length << 1;
+    entries = Arrays.copyOf(entries, length);
+    expiries = Arrays.copyOf(expiries, length);
+    nexts = Arrays.copyOf(nexts, length);
+    prevs = Arrays.copyOf(prevs, length);
+  }
+
+  private void insert(int index, K key, V value, long expiry) {
+    if (size == entries.length) {
+      rehash();
+      index = slot(key);
+    }
+    entries[size] = new RecordEntry<>(key, value);
+    expiries[size] = expiry;
+    offsets[index] = size + 1;
+    schedule(size);
+    size++;
+  }
+
+  private void update(int position, K key, V value, long expiry) {
+    entries[position] = new RecordEntry<>(key, value);
+    expiries[position] = expiry;
+    unlink(position);
+    schedule(position);
+  }
+
+  /**
+   * Returns the number of entries, including the expired entries not yet removed.
+   * @return the number of entries.
+   * @see #cleanUp()
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the value associated to a key if the entry is not expired.
+   *
+   * @param key the key
+   * @return the value associated to the key or null.
+   */
+  public V get(Object key) {
+    return getOrDefault(key, null);
+  }
+
+  /**
+   * Returns the value associated to a key if the entry is not expired or a default value.
+   *
+   * @param key the key
+   * @param defaultValue the default value
+   * @return the value associated to the key or the default value.
+   */
+  public V getOrDefault(Object key, V defaultValue) {
+    Objects.requireNonNull(key);
+    var offset = offsets[slot(key)];
+    if (offset == 0 || isExpired(offset - 1, ticker.getAsLong())) {
+      return defaultValue;
+    }
+    return entries[offset - 1].value();
+  }
+
+  /**
+   * Returns true if the key is present and the entry is not expired.
+   *
+   * @param key the key
+   * @return true if the key is present and the entry is not expired.
+   */
+  public boolean containsKey(Object key) {
+    Objects.requireNonNull(key);
+    var offset = offsets[slot(key)];
+    return offset != 0 && !isExpired(offset - 1, ticker.getAsLong());
+  }
+
+  /**
+   * Returns the remaining time to live of an entry.
+   *
+   * @param key the key
+   * @return the remaining time to live or {@link Duration#ZERO} if the key is not present or the entry is expired.
+   */
+  public Duration timeToLive(Object key) {
+    Objects.requireNonNull(key);
+    var offset = offsets[slot(key)];
+    if (offset == 0) {
+      return Duration.ZERO;
+    }
+    return Duration.ofNanos(Math.max(0, expiries[offset - 1] - ticker.getAsLong()));
+  }
+
+  /**
+   * Associates a value to a key with the default time to live.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the previous value or null if the key was not present or the entry was expired.
+   */
+  public V put(K key, V value) {
+    return put(key, value, ttl);
+  }
+
+  /**
+   * Associates a value to a key with a time to live.
+   *
+   * @param key the key
+   * @param value the value
+   * @param ttl the time to live of the entry.
+   * @return the previous value or null if the key was not present or the entry was expired.
+   * @throws IllegalArgumentException if the time to live is zero or negative.
+   */
+  public V put(K key, V value, Duration ttl) {
+    return put(key, value, ttlNanos(ttl));
+  }
+
+  private V put(K key, V value, long ttl) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    var now = ticker.getAsLong();
+    advance(now, false);
+    var index = slot(key);
+    var offset = offsets[index];
+    if (offset == 0) {
+      insert(index, key, value, now + ttl);
+      return null;
+    }
+    var position = offset - 1;
+    var previousValue = isExpired(position, now) ? null : entries[position].value();
+    update(position, key, value, now + ttl);
+    return previousValue;
+  }
+
+  /**
+   * Associates a value to a key with the default time to live if the key is not present
+   * or its entry is expired.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the existing value or null.
+   */
+  public V putIfAbsent(K key, V value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    var now = ticker.getAsLong();
+    advance(now, false);
+    var index = slot(key);
+    var offset = offsets[index];
+    if (offset == 0) {
+      insert(index, key, value, now + ttl);
+      return null;
+    }
+    var position = offset - 1;
+    if (!isExpired(position, now)) {
+      return entries[position].value();
+    }
+    update(position, key, value, now + ttl);
+    return null;
+  }
+
+  /**
+   * Associates the value computed by the function to the key with the default time to live
+   * if the key is not present or its entry is expired.
+   *
+   * @param key the key
+   * @param function the function called if the key is not present.
+   * @return the existing value or the computed value.
+   */
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> function) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(function);
+    var now = ticker.getAsLong();
+    advance(now, false);
+    var index = slot(key);
+    var offset = offsets[index];
+    if (offset != 0 && !isExpired(offset - 1, now)) {
+      return entries[offset - 1].value();
+    }
+    V value = Objects.requireNonNull(function.apply(key));
+    if (offset == 0) {
+      insert(index, key, value, now + ttl);
+    } else {
+      update(offset - 1, key, value, now + ttl);
+    }
+    return value;
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @param key the key
+   * @return the value associated to the key or null if the key was not present or the entry was expired.
+   */
+  public V remove(Object key) {
+    Objects.requireNonNull(key);
+    var now = ticker.getAsLong();
+    advance(now, false);
+    var index = slot(key);
+    var offset = offsets[index];
+    if (offset == 0) {
+      return null;
+    }
+    var position = offset - 1;
+    var value = isExpired(position, now) ? null : entries[position].value();
+    unlink(position);
+    removeAt(position, index);
+    return value;
+  }
+
+  /**
+   * Calls the action on all the entries that are not expired.
+   *
+   * @param action the action
+   */
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    var now = ticker.getAsLong();
+    for (var i = 0; i < size; i++) {
+      if (!isExpired(i, now)) {
+        var entry = entries[i];
+        action.accept(entry.key(), entry.value());
+      }
+    }
+  }
+
+  /**
+   * Returns an iterator on the entries that are not expired when the iterator is created.
+   * The map should not be updated during the iteration.
+   *
+   * @return an iterator on the entries that are not expired.
+   */
+  @Override
+  public Iterator<RecordEntry<K, V>> iterator() {
+    var now = ticker.getAsLong();
+    return new Iterator<>() {
+      private int index = next(0);
+
+      private int next(int index) {
+        while (index < size && isExpired(index, now)) {
+          index++;
+        }
+        return index;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return index < size;
+      }
+
+      @Override
+      public RecordEntry<K, V> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        var entry = entries[index];
+        index = next(index + 1);
+        return entry;
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    var joiner = new StringJoiner(", ", "{", "}");
+    forEach((key, value) -> joiner.add(key + "=" + value));
+    return joiner.toString();
+  }
+}
@@ -0,0 +1,503 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * A map whose values are records stored as columns, one array per record component.
+ *
+ * The keys are stored in a dense array indexed by an open addressing table of offsets like
+ * {@link RecordMap}, but instead of storing the values as objects, each record component is
+ * stored in its own array next to the keys, so a value does not exist as an object on the heap
+ * until {@link #get(Object)} or an iteration rebuilds it with the canonical constructor.
+ * The components of type {@code boolean}, {@code byte}, {@code short}, {@code char} and {@code int}
+ * are stored in an {@code int[]}, the components of type {@code float} and {@code double} are stored
+ * in a {@code double[]}, the components of type {@code long} in a {@code long[]} and all other
+ * components in an {@code Object[]}.
+ *
+ * The columns can be scanned without rebuilding the records using {@link #intColumn(String)},
+ * {@link #longColumn(String)} and {@link #doubleColumn(String)}.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value, a record
+ */
+public final class RecordColumnMap<K, V extends Record> implements Iterable<RecordEntry<K, V>> {
+  private static final int INT = 0, LONG = 1, DOUBLE = 2, OBJECT = 3;
+  private static final int MAX_COMPONENTS = 127;  // the constructor takes 2 parameters per component
+
+  private final Class<V> valueType;
+  private final String[] names;
+  private final int[] kinds;
+  private final MethodHandle[] accessors;  // (Record)int, (Record)long, (Record)double or (Record)Object
+  private final MethodHandle constructor;  // (Object[] columns, int index)Record
+
+  private int size;
+  private int[] offsets;
+  private K[] keys;
+  private final Object[] columns;
+
+  /**
+   * Creates a map storing the values of a record type as columns.
+   *
+   * @param valueType the record type of the values.
+   * @throws IllegalArgumentException if the value type is not a record or is not accessible
+   *   from this class.
+   * @see #RecordColumnMap(Class, MethodHandles.Lookup)
+   */
+  public RecordColumnMap(Class<V> valueType) {
+    this(valueType, MethodHandles.lookup());
+  }
+
+  /**
+   * Creates a map storing the values of a record type as columns,
+   * the accessors and the canonical constructor of the record are accessed using a lookup.
+   *
+   * @param valueType the record type of the values.
+   * @param lookup a lookup that can access the record accessors and its canonical constructor.
+   * @throws IllegalArgumentException if the value type is not a record, has more than 127 components
+   *   or is not accessible from the lookup.
+   */
+  @SuppressWarnings("unchecked")
+  public RecordColumnMap(Class<V> valueType, MethodHandles.Lookup lookup) {
+    Objects.requireNonNull(valueType);
+    Objects.requireNonNull(lookup);
+    if (!valueType.isRecord()) {
+      throw new IllegalArgumentException(valueType.getName() + " is not a record");
+    }
+    var components = valueType.getRecordComponents();
+    if (components.length > MAX_COMPONENTS) {
+      throw new IllegalArgumentException(valueType.getName() + " has more than " + MAX_COMPONENTS + " components");
+    }
+    var names = new String[components.length];
+    var kinds = new int[components.length];
+    var accessors = new MethodHandle[components.length];
+    var parameterTypes = new Class<?>[components.length];
+    var storageTypes = new Class<?>[components.length];
+    try {
+      for (var i = 0; i < components.length; i++) {
+        var component = components[i];
+        var kind = kind(component.getType());
+        names[i] = component.getName();
+        kinds[i] = kind;
+        parameterTypes[i] = component.getType();
+        storageTypes[i] = storageType(kind);
+        var accessor = lookup.unreflect(component.getAccessor());
+        accessors[i] = MethodHandles.explicitCastArguments(accessor, MethodType.methodType(storageType(kind), Record.class));
+      }
+      var constructor = lookup.unreflectConstructor(valueType.getDeclaredConstructor(parameterTypes));
+      this.constructor = columnConstructor(
+          MethodHandles.explicitCastArguments(constructor, MethodType.methodType(Record.class, storageTypes)), kinds);
+    } catch (IllegalAccessException | NoSuchMethodException e) {
+      throw new IllegalArgumentException(valueType.getName() + " is not accessible from " + lookup, e);
+    }
+    this.valueType = valueType;
+    this.names = names;
+    this.kinds = kinds;
+    this.accessors = accessors;
+    this.offsets = new int[2];
+    this.keys = (K[]) new Object[1];
+    var columns = new Object[components.length];
+    for (var i = 0; i < columns.length; i++) {
+      columns[i] = newColumn(kinds[i], 1);
+    }
+    this.columns = columns;
+  }
+
+  // each argument of the constructor is replaced by a reader (Object[] columns, int index) of its column,
+  // (T0, T1, ...)Record becomes (Object[], int, Object[], int, ...)Record, then all the readers
+  // share the same two arguments, so a record is built without an intermediate array or boxing
+  private static MethodHandle columnConstructor(MethodHandle constructor, int[] kinds) {
+    var target = constructor;
+    for (var i = kinds.length - 1; i >= 0; i--) {
+      target = MethodHandles.collectArguments(target, i, columnReader(kinds[i], i));
+    }
+    var reorder = new int[kinds.length << 1];
+    for (var i = 0; i < reorder.length; i++) {
+      reorder[i] = i & 1;
+    }
+    return MethodHandles.permuteArguments(target, MethodType.methodType(Record.class, Object[].class, int.class), reorder);
+  }
+
+  // (Object[] columns, int index)T reads the element index of the column i
+  private static MethodHandle columnReader(int kind, int i) {
+    var arrayType = newColumn(kind, 0).getClass();
+    var column = MethodHandles.insertArguments(MethodHandles.arrayElementGetter(Object[].class), 1, i)
+        .asType(MethodType.methodType(arrayType, Object[].class));
+    return MethodHandles.filterArguments(MethodHandles.arrayElementGetter(arrayType), 0, column);
+  }
+
+  private static int kind(Class<?> type) {
+    if (type == boolean.class || type == byte.class || type == short.class || type == char.class || type == int.class) {
+      return INT;
+    }
+    if (type == long.class) {
+      return LONG;
+    }
+    if (type == float.class || type == double.class) {
+      return DOUBLE;
+    }
+    return OBJECT;
+  }
+
+  private static Class<?> storageType(int kind) {
+    return switch (kind) {
+      case INT -> int.class;
+      case LONG -> long.class;
+      case DOUBLE -> double.class;
+      default -> Object.class;
+    };
+  }
+
+  private static Object newColumn(int kind, int length) {
+    return switch (kind) {
+      case INT -> new int[length];
+      case LONG -> new long[length];
+      case DOUBLE -> new double[length];
+      default -> new Object[length];
+    };
+  }
+
+  private static Object copyColumn(int kind, Object column, int length) {
+    return switch (kind) {
+      case INT -> Arrays.copyOf((int[]) column, length);
+      case LONG -> Arrays.copyOf((long[]) column, length);
+      case DOUBLE -> Arrays.copyOf((double[]) column, length);
+      default -> Arrays.copyOf((Object[]) column, length);
+    };
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private void rehash() {
+    var offsets = new int[this.offsets.length << 1];
+    loop: for (int i = 0; i < size; i++) {
+      var index = keys[i].hashCode() & (offsets.length - 1);
+      for (; ; ) {
+        if (offsets[index] == 0) {
+          offsets[index] = i + 1;
+          continue loop;
+        }
+        // FIXME this will create clusters
+        index = (index + 1) & (offsets.length - 1);
+      }
+    }
+    this.offsets = offsets;
+    var length = keys.length << 1;
+    keys = Arrays.copyOf(keys, length);
+    for (var i = 0; i < columns.length; i++) {
+      columns[i] = copyColumn(kinds[i], columns[i], length);
+    }
+  }
+
+  private void store(int index, V value) {
+    try {
+      for (var i = 0; i < columns.length; i++) {
+        var accessor = accessors[i];
+        switch (kinds[i]) {
+          case INT -> ((int[]) columns[i])[index] = (int) accessor.invokeExact((Record) value);
+          case LONG -> ((long[]) columns[i])[index] = (long) accessor.invokeExact((Record) value);
+          case DOUBLE -> ((double[]) columns[i])[index] = (double) accessor.invokeExact((Record) value);
+          default -> ((Object[]) columns[i])[index] = (Object) accessor.invokeExact((Record) value);
+        }
+      }
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private V load(int index) {
+    try {
+      return valueType.cast((Record) constructor.invokeExact(columns, index));
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Associates a value to a key, the components of the value are stored in the columns.
+   *
+   * @param key the key
+   * @param value the value
+   * @return true if the key was not already present.
+   */
+  public boolean put(K key, V value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    var index = key.hashCode() & (offsets.length - 1);
+    int offset;
+    for (;;) {
+      if ((offset = offsets[index]) == 0) {
+        if (keys.length == size) {
+          rehash();
+          index = key.hashCode() & (offsets.length - 1);
+          continue;  // restart
+        }
+        store(size, value);
+        keys[size] = key;
+        offsets[index] = size + 1;
+        size++;
+        return true;
+      }
+      if (key.equals(keys[offset - 1])) {
+        store(offset - 1, value);
+        return false;
+      }
+      // FIXME this will create clusters
+      index = (index + 1) & (offsets.length - 1);
+    }
+  }
+
+  /**
+   * Returns the position of a key in the columns.
+   *
+   * @param key the key
+   * @return the position of the key in the columns or -1 if the key is not present.
+   */
+  public int indexOf(Object key) {
+    Objects.requireNonNull(key);
+    var index = key.hashCode() & (offsets.length - 1);
+    int offset;
+    for (;;) {
+      if ((offset = offsets[index]) == 0) {
+        return -1;
+      }
+      if (key.equals(keys[offset - 1])) {
+        return offset - 1;
+      }
+      // FIXME this will create clusters
+      index = (index + 1) & (offsets.length - 1);
+    }
+  }
+
+  public boolean containsKey(Object key) {
+    return indexOf(key) != -1;
+  }
+
+  /**
+   * Returns the value associated to a key, the value is rebuilt from the columns.
+   *
+   * @param key the key
+   * @return a new record or null if the key is not present.
+   */
+  public V get(Object key) {
+    var index = indexOf(key);
+    if (index == -1) {
+      return null;
+    }
+    return load(index);
+  }
+
+  /**
+   * Returns the key at a position.
+   *
+   * @param index the position
+   * @return the key at the position.
+   */
+  public K keyAt(int index) {
+    Objects.checkIndex(index, size);
+    return keys[index];
+  }
+
+  /**
+   * Returns the value at a position, the value is rebuilt from the columns.
+   *
+   * @param index the position
+   * @return a new record.
+   */
+  public V valueAt(int index) {
+    Objects.checkIndex(index, size);
+    return load(index);
+  }
+
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    for (var i = 0; i < size; i++) {
+      action.accept(keys[i], load(i));
+    }
+  }
+
+  @Override
+  public Iterator<RecordEntry<K, V>> iterator() {
+    var size = this.size;
+    return new Iterator<>() {
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        return index < size;
+      }
+
+      @Override
+      public RecordEntry<K, V> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        var index = this.index++;
+        return new RecordEntry<>(keys[index], load(index));
+      }
+    };
+  }
+
+  private int component(String name, int kind) {
+    Objects.requireNonNull(name);
+    for (var i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) {
+        if (kinds[i] != kind) {
+          throw new IllegalArgumentException("component " + name + " is not stored as a " + storageType(kind));
+        }
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("no component " + name + " in " + valueType.getName());
+  }
+
+  /**
+   * A read-only view of a column of type {@code int}.
+   * The view is a snapshot, it does not see the values added after its creation.
+   */
+  public static final class IntColumn {
+    private final int[] array;
+    private final int size;
+
+    private IntColumn(int[] array, int size) {
+      this.array = array;
+      this.size = size;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int get(int index) {
+      Objects.checkIndex(index, size);
+      return array[index];
+    }
+
+    public IntStream stream() {
+      return Arrays.stream(array, 0, size);
+    }
+  }
+
+  /**
+   * A read-only view of a column of type {@code long}.
+   * The view is a snapshot, it does not see the values added after its creation.
+   */
+  public static final class LongColumn {
+    private final long[] array;
+    private final int size;
+
+    private LongColumn(long[] array, int size) {
+      this.array = array;
+      this.size = size;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public long get(int index) {
+      Objects.checkIndex(index, size);
+      return array[index];
+    }
+
+    public LongStream stream() {
+      return Arrays.stream(array, 0, size);
+    }
+  }
+
+  /**
+   * A read-only view of a column of type {@code double}.
+   * The view is a snapshot, it does not see the values added after its creation.
+   */
+  public static final class DoubleColumn {
+    private final double[] array;
+    private final int size;
+
+    private DoubleColumn(double[] array, int size) {
+      this.array = array;
+      this.size = size;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public double get(int index) {
+      Objects.checkIndex(index, size);
+      return array[index];
+    }
+
+    public DoubleStream stream() {
+      return Arrays.stream(array, 0, size);
+    }
+  }
+
+  /**
+   * Returns a view of the column storing a component of type
+   * {@code boolean} (0 or 1), {@code byte}, {@code short}, {@code char} or {@code int}.
+   * The position of a value in the column is the same as the position of its key,
+   * see {@link #keyAt(int)}.
+   *
+   * @param name the name of the record component
+   * @return a view of the column.
+   * @throws IllegalArgumentException if there is no such component or if it is not stored as an int.
+   */
+  public IntColumn intColumn(String name) {
+    return new IntColumn((int[]) columns[component(name, INT)], size);
+  }
+
+  /**
+   * Returns a view of the column storing a component of type {@code long}.
+   *
+   * @param name the name of the record component
+   * @return a view of the column.
+   * @throws IllegalArgumentException if there is no such component or if it is not a long.
+   * @see #intColumn(String)
+   */
+  public LongColumn longColumn(String name) {
+    return new LongColumn((long[]) columns[component(name, LONG)], size);
+  }
+
+  /**
+   * Returns a view of the column storing a component of type {@code float} or {@code double}.
+   *
+   * @param name the name of the record component
+   * @return a view of the column.
+   * @throws IllegalArgumentException if there is no such component or if it is not stored as a double.
+   * @see #intColumn(String)
+   */
+  public DoubleColumn doubleColumn(String name) {
+    return new DoubleColumn((double[]) columns[component(name, DOUBLE)], size);
+  }
+
+  @Override
+  public String toString() {
+    var joiner = new StringJoiner(", ", "{", "}");
+    for (var i = 0; i < size; i++) {
+      joiner.add(keys[i] + "=" + load(i));
+    }
+    return joiner.toString();
+  }
+}
@@ -1,9 +1,16 @@
 package com.github.forax.recordmap;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.AbstractList;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -12,6 +19,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -21,6 +29,7 @@ import java.util.function.Function;
  * @param <K> type of the key
  * @param <V> type of the value
  */
+@RewriteSignatures(value = Map.class, excludes = "entrySet()Ljava/util/Set;")
 public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<RecordMap.RecordEntry<K,V>> {
   public record RecordEntry<K, V>(K key, V value) implements Map.Entry<K, V> {
 
@@ -74,6 +83,13 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
   private int size;
   private int[] offsets;
   private RecordEntry<K,V>[] entries;
+  private int rehashCount;
+  private int epoch;  // changes each time the entries are moved, i.e. their positions are not valid anymore
+
+  // the views are snapshots of (size, offsets, entries), reused while those do not change
+  private EntrySetView<K,V> entrySetView;
+  private KeySetView<K,V> keySetView;
+  private ValuesView<V> valuesView;
 
 
   public RecordMap() {
@@ -83,6 +99,132 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
     entries = (RecordEntry<K,V>[]) new RecordEntry<?,?>[1];
   }
 
+  /**
+   * Creates a map that can store {@code expectedSize} entries without having to grow.
+   *
+   * @param expectedSize the expected number of entries.
+   */
+  @SuppressWarnings("unchecked")
+  public RecordMap(int expectedSize) {
+    var capacity = tableSize(expectedSize);
+    offsets = new int[capacity << 1];
+    entries = (RecordEntry<K,V>[]) new RecordEntry<?,?>[capacity];
+  }
+
+  private static final ClassValue<MethodHandle> FACTORIES = new ClassValue<>() {
+    @Override
+    protected MethodHandle computeValue(Class<?> keyType) {
+      var lookup = MethodHandles.lookup();
+      try {
+        try {
+          var specialization = Class.forName(
+              RecordMap.class.getPackageName() + "." + keyType.getSimpleName() + "KeyRecordMap",
+              true, RecordMap.class.getClassLoader());
+          var specializedKeyType = (Class<?>) lookup.findStaticGetter(specialization, "KEY_TYPE", Class.class).invokeExact();
+          if (specializedKeyType == keyType) {
+            return lookup.findConstructor(specialization, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(RecordMap.class));
+          }
+        } catch (ClassNotFoundException e) {
+          // no specialization, use a RecordMap
+        }
+        return lookup.findConstructor(RecordMap.class, MethodType.methodType(void.class));
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new AssertionError(e);
+      }
+    }
+  };
+
+  /**
+   * Creates a map specialized for a key type.
+   * The specializations are subclasses of RecordMap generated at build time by the {@link Rewriter}
+   * for a configured list of final key types, the lookups of a specialization call
+   * {@code hashCode()} and {@code equals()} directly on the key type so those calls are
+   * not megamorphic when several RecordMaps with different key types are used.
+   * If there is no specialization for the key type, a plain RecordMap is created.
+   *
+   * @param keyType the type of the keys.
+   * @return a new map.
+   * @param <K> type of the key
+   * @param <V> type of the value
+   */
+  public static <K,V> RecordMap<K,V> ofKeyType(Class<K> keyType) {
+    Objects.requireNonNull(keyType);
+    try {
+      return (RecordMap<K,V>) FACTORIES.get(keyType).invokeExact();
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static int tableSize(int expectedSize) {
+    if (expectedSize < 0 || expectedSize > 1 << 29) {
+      throw new IllegalArgumentException("invalid size " + expectedSize);
+    }
+    return expectedSize <= 1 ? 1 : Integer.highestOneBit(expectedSize - 1) << 1;
+  }
+
+  /**
+   * Statistics about the hash index of a map.
+   *
+   * @param size the number of entries.
+   * @param capacity the number of slots of the hash index.
+   * @param loadFactor the ratio between the size and the capacity.
+   * @param rehashCount the number of times the map has grown.
+   * @param maxProbeLength the maximum number of slots skipped to find a key.
+   * @param probeLengthHistogram the number of keys found after skipping 0, 1, 2, etc. slots.
+   */
+  public record Stats(int size, int capacity, double loadFactor, int rehashCount,
+                      int maxProbeLength, int[] probeLengthHistogram) {
+    public Stats {
+      probeLengthHistogram = probeLengthHistogram.clone();
+    }
+
+    @Override
+    public int[] probeLengthHistogram() {
+      return probeLengthHistogram.clone();
+    }
+
+    @Override
+    public String toString() {
+      return "Stats[size=" + size + ", capacity=" + capacity + ", loadFactor=" + loadFactor +
+          ", rehashCount=" + rehashCount + ", maxProbeLength=" + maxProbeLength +
+          ", probeLengthHistogram=" + Arrays.toString(probeLengthHistogram) + "]";
+    }
+  }
+
+  /**
+   * Returns a snapshot of the statistics of the hash index.
+   * The statistics are computed by scanning the index when this method is called,
+   * so gathering them does not slow down the other operations.
+   *
+   * @return the statistics of the hash index.
+   */
+  public Stats stats() {
+    var offsets = this.offsets;
+    var histogram = new int[8];
+    var maxProbeLength = 0;
+    for (var i = 0; i < offsets.length; i++) {
+      var offset = offsets[i];
+      if (offset == 0) {
+        continue;
+      }
+      var home = entries[offset - 1].key.hashCode() & (offsets.length - 1);
+      var probeLength = (i - home) & (offsets.length - 1);
+      if (probeLength >= histogram.length) {
+        histogram = Arrays.copyOf(histogram, Math.max(histogram.length << 1, probeLength + 1));
+      }
+      histogram[probeLength]++;
+      maxProbeLength = Math.max(maxProbeLength, probeLength);
+    }
+    histogram = Arrays.copyOf(histogram, size == 0 ? 0 : maxProbeLength + 1);
+    return new Stats(size, offsets.length, size / (double) offsets.length, rehashCount, maxProbeLength, histogram);
+  }
+
   @Override
   public boolean isEmpty() {
     return size == 0;
@@ -96,22 +238,83 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
     return new RecordEntry<>((K) key, (V) value);
   }
 
-  private void rehash() {
-    var offsets = new int[this.offsets.length << 1];
-    loop: for (int i = 0; i < entries.length; i++) {
+  // returns the maximum probe length
+  private static int index(int[] offsets, RecordEntry<?,?>[] entries, int size) {
+    var maxProbeLength = 0;
+    for (int i = 0; i < size; i++) {
       var e = entries[i];
       var index = e.key.hashCode() & (offsets.length - 1);
-      for (; ; ) {
-        if (offsets[index] == 0) {
-          offsets[index] = i + 1;
-          continue loop;
-        }
+      var probeLength = 0;
+      while (offsets[index] != 0) {
         // FIXME this will create clusters
         index = (index + 1) & (offsets.length - 1);
+        probeLength++;
       }
+      offsets[index] = i + 1;
+      maxProbeLength = Math.max(maxProbeLength, probeLength);
     }
+    return maxProbeLength;
+  }
+
+  private void resize(int capacity) {
+    var event = new RecordMapRehashEvent();
+    event.begin();
+    var offsets = new int[capacity << 1];
+    var maxProbeLength = index(offsets, entries, size);
+    var oldCapacity = entries.length;
     this.offsets = offsets;
-    this.entries = Arrays.copyOf(entries, entries.length << 1);
+    this.entries = Arrays.copyOf(entries, capacity);
+    rehashCount++;
+    event.end();
+    if (event.shouldCommit()) {
+      event.oldCapacity = oldCapacity;
+      event.newCapacity = capacity;
+      event.size = size;
+      event.maxProbeLength = maxProbeLength;
+      event.commit();
+    }
+  }
+
+  private void ensureCapacity(int expectedSize) {
+    if (entries.length >= expectedSize) {
+      return;
+    }
+    resize(tableSize(expectedSize));
+  }
+
+  // returns the index in offsets of the key or of the empty slot where the key should be inserted
+  private static int slot(int[] offsets, RecordEntry<?,?>[] entries, Object key, int hash) {
+    var index = hash & (offsets.length - 1);
+    int offset;
+    for (;;) {
+      if ((offset = offsets[index]) == 0 || key.equals(entries[offset - 1].key)) {
+        return index;
+      }
+      // FIXME this will create clusters
+      index = (index + 1) & (offsets.length - 1);
+    }
+  }
+
+  // returns the position of the entry of the key or -1, the entries after size are ignored,
+  // so the views, which capture the size, do not see the keys inserted after them
+  private static int position(int size, int[] offsets, RecordEntry<?,?>[] entries, Object key) {
+    var offset = offsets[slot(offsets, entries, key, key.hashCode())];
+    return offset == 0 || offset > size ? -1 : offset - 1;
+  }
+
+  // append an entry with a key not already in the map, the capacity must have been ensured
+  private void appendUnique(RecordEntry<K,V> entry, int hash) {
+    var index = hash & (offsets.length - 1);
+    while (offsets[index] != 0) {
+      // FIXME this will create clusters
+      index = (index + 1) & (offsets.length - 1);
+    }
+    entries[size] = entry;
+    offsets[index] = ++size;
+  }
+
+  private void rehash() {
+    resize(entries.length << 1);
   }
 
   @Override
@@ -373,6 +576,137 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
     }
   }
 
+  /**
+   * Finds the slot of a key.
+   * If the key is present, the slot is the position of its entry, between 0 and {@code size() - 1},
+   * that can be used with {@link #keyAt(int)}, {@link #valueAt(int)}, {@link #entryAt(int)} and
+   * {@link #setValueAt(int, Object)}.
+   * Otherwise, the slot is a negative value that can be used with {@link #insertAt(int, Object, Object)}
+   * to insert the key without having to find its slot again.
+   * A negative slot is only valid until the next insertion or removal.
+   * This method does not modify the map, so it can be called by several threads sharing
+   * a map that is not modified.
+   *
+   * @param key the key
+   * @return the position of the entry of the key or a negative slot if the key is not present.
+   */
+  public int find(Object key) {
+    Objects.requireNonNull(key);
+    var index = slot(offsets, entries, key, key.hashCode());
+    var offset = offsets[index];
+    if (offset != 0) {
+      return offset - 1;
+    }
+    return -index - 1;
+  }
+
+  /**
+   * Returns the key of the entry at a position.
+   * The entries are positioned in insertion order, so iterating from 0 to {@code size() - 1}
+   * visits all the entries without allocating an iterator.
+   *
+   * @param index the position of the entry
+   * @return the key of the entry at the position.
+   * @throws IndexOutOfBoundsException if the index is not between 0 and {@code size() - 1}.
+   */
+  public K keyAt(int index) {
+    Objects.checkIndex(index, size);
+    return entries[index].key;
+  }
+
+  /**
+   * Returns the value of the entry at a position.
+   *
+   * @param index the position of the entry
+   * @return the value of the entry at the position.
+   * @throws IndexOutOfBoundsException if the index is not between 0 and {@code size() - 1}.
+   * @see #keyAt(int)
+   */
+  public V valueAt(int index) {
+    Objects.checkIndex(index, size);
+    return entries[index].value;
+  }
+
+  /**
+   * Returns the entry at a position.
+   *
+   * @param index the position of the entry
+   * @return the entry at the position.
+   * @throws IndexOutOfBoundsException if the index is not between 0 and {@code size() - 1}.
+   * @see #keyAt(int)
+   */
+  public RecordEntry<K,V> entryAt(int index) {
+    Objects.checkIndex(index, size);
+    return entries[index];
+  }
+
+  /**
+   * Replaces the value of the entry at a position.
+   *
+   * @param index the position of the entry
+   * @param value the new value
+   * @return the previous value.
+   * @throws IndexOutOfBoundsException if the index is not between 0 and {@code size() - 1}.
+   * @see #find(Object)
+   */
+  public V setValueAt(int index, V value) {
+    Objects.checkIndex(index, size);
+    Objects.requireNonNull(value);
+    var entry = entries[index];
+    entries[index] = newRecordEntry(entry.key, value);
+    return entry.value;
+  }
+
+  /**
+   * Inserts a key and its value at a slot returned by {@link #find(Object)}.
+   *
+   * @param slot a negative slot returned by {@link #find(Object)} for the same key.
+   * @param key the key
+   * @param value the value
+   * @return the position of the new entry.
+   * @throws IllegalArgumentException if the slot is not a negative slot.
+   * @throws IllegalStateException if the slot is not valid anymore, because the slot is not empty,
+   *   the table has been rebuilt or the key has been inserted since the call to {@link #find(Object)}.
+   */
+  public int insertAt(int slot, K key, V value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    if (slot >= 0) {
+      throw new IllegalArgumentException("the key is already present at " + slot);
+    }
+    var index = -slot - 1;
+    // check that the slot is still the empty slot that ends the probe sequence of the key
+    if (index >= offsets.length || offsets[index] != 0 || slot(offsets, entries, key, key.hashCode()) != index) {
+      throw new IllegalStateException("the slot " + slot + " is not valid anymore");
+    }
+    if (entries.length == size) {
+      rehash();
+      index = slot(offsets, entries, key, key.hashCode());
+    }
+    entries[size] = newRecordEntry(key, value);
+    offsets[index] = size + 1;
+    return size++;
+  }
+
+  // used by the sorted index to know if the positions it stores are still valid
+  int epoch() {
+    return epoch;
+  }
+
+  /**
+   * Creates a sorted index on the keys of this map.
+   * The index stores the positions of the entries sorted by key and is updated lazily,
+   * the new entries are sorted and merged into the index when a range is requested.
+   * Point lookups still use the hash index of the map.
+   *
+   * @param comparator the comparator used to sort the keys.
+   * @return a new sorted index.
+   */
+  public SortedIndex<K,V> sortedIndex(Comparator<? super K> comparator) {
+    Objects.requireNonNull(comparator);
+    return new SortedIndex<>(this, comparator);
+  }
+
   @Override
   public boolean containsValue(Object value) {
     Objects.requireNonNull(value);
@@ -391,6 +725,109 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
     m.forEach(this::put);
   }
 
+  /**
+   * Merges all the entries of another map into this map.
+   * If a key is present in both maps, the new value is computed by calling the function
+   * with the value of this map and the value of the other map, otherwise the entry of
+   * the other map is added as is.
+   * The hash of each key is computed once and the entries of the other map are shared
+   * instead of being copied.
+   *
+   * @param other the other map.
+   * @param function the function called if a key is present in both maps.
+   */
+  public void mergeAll(RecordMap<? extends K, ? extends V> other, BiFunction<? super V, ? super V, ? extends V> function) {
+    Objects.requireNonNull(other);
+    Objects.requireNonNull(function);
+    ensureCapacity(Math.max(size, other.size));
+    @SuppressWarnings("unchecked")
+    var otherEntries = (RecordEntry<K,V>[]) other.entries;
+    for (var i = 0; i < other.size; i++) {
+      var otherEntry = otherEntries[i];
+      var key = otherEntry.key;
+      var hash = key.hashCode();
+      var index = slot(offsets, entries, key, hash);
+      var offset = offsets[index];
+      if (offset == 0) {
+        if (entries.length == size) {
+          rehash();
+          index = slot(offsets, entries, key, hash);
+        }
+        entries[size] = otherEntry;
+        offsets[index] = ++size;
+        continue;
+      }
+      var entry = entries[offset - 1];
+      var newValue = (V) function.apply(entry.value, otherEntry.value);
+      if (newValue != entry.value) {
+        entries[offset - 1] = newRecordEntry(entry.key, newValue);
+      }
+    }
+  }
+
+  /**
+   * Returns a new map containing the keys present in both this map and another map.
+   * The values are computed by calling the function with the value of this map and
+   * the value of the other map.
+   * The smallest map is iterated and the largest map is probed,
+   * so the iteration order is the one of the smallest map.
+   *
+   * @param other the other map.
+   * @param function the function called to compute the value of each key of the intersection.
+   * @return a new map.
+   * @param <W> the type of the values of the other map.
+   * @param <R> the type of the values of the resulting map.
+   */
+  public <W, R> RecordMap<K, R> intersect(RecordMap<? extends K, ? extends W> other, BiFunction<? super V, ? super W, ? extends R> function) {
+    Objects.requireNonNull(other);
+    Objects.requireNonNull(function);
+    var result = new RecordMap<K, R>(Math.min(size, other.size));
+    if (size <= other.size) {
+      for (var i = 0; i < size; i++) {
+        var entry = entries[i];
+        var hash = entry.key.hashCode();
+        var offset = other.offsets[slot(other.offsets, other.entries, entry.key, hash)];
+        if (offset != 0) {
+          var value = function.apply(entry.value, other.entries[offset - 1].value);
+          result.appendUnique(result.newRecordEntry(entry.key, value), hash);
+        }
+      }
+    } else {
+      var otherEntries = other.entries;
+      for (var i = 0; i < other.size; i++) {
+        var otherEntry = otherEntries[i];
+        var hash = otherEntry.key.hashCode();
+        var offset = offsets[slot(offsets, entries, otherEntry.key, hash)];
+        if (offset != 0) {
+          var entry = entries[offset - 1];
+          var value = function.apply(entry.value, otherEntry.value);
+          result.appendUnique(result.newRecordEntry(entry.key, value), hash);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a new map containing the entries of this map whose key is not present in another map.
+   * The entries are shared with this map instead of being copied.
+   *
+   * @param other the other map.
+   * @return a new map.
+   */
+  public RecordMap<K, V> difference(RecordMap<? extends K, ?> other) {
+    Objects.requireNonNull(other);
+    var result = new RecordMap<K, V>(size);
+    for (var i = 0; i < size; i++) {
+      var entry = entries[i];
+      var hash = entry.key.hashCode();
+      if (other.offsets[slot(other.offsets, other.entries, entry.key, hash)] == 0) {
+        result.appendUnique(entry, hash);
+      }
+    }
+    return result;
+  }
+
   @Override
   public void replaceAll(BiFunction/*<? super K, ? super V, ? extends V>*/ function) {
     Objects.requireNonNull(function);
@@ -412,11 +849,81 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Removes all the entries that satisfy the predicate.
+   * The predicate is first called on all the entries, then the remaining entries are compacted
+   * in place and the index is rebuilt once, so removing a lot of entries costs the same as removing one.
+   * If the predicate throws an exception, the map is not modified.
+   * The views returned by {@link #keySet()}, {@link #values()} and {@link #entrySet()} before
+   * the call should not be used after the call if an entry was removed.
+   *
+   * @param predicate a predicate on the key and the value of the entries to remove.
+   * @return true if at least one entry was removed.
+   * @throws ConcurrentModificationException if the predicate modifies the map.
+   */
+  public boolean removeIf(BiPredicate<? super K, ? super V> predicate) {
+    Objects.requireNonNull(predicate);
+    var size = this.size;
+    var entries = this.entries;
+    var expectedEpoch = epoch;
+    // like ArrayList.removeIf, find the entries to remove before modifying the map
+    var removed = new BitSet(size);
+    for (var i = 0; i < size; i++) {
+      var entry = entries[i];
+      if (predicate.test(entry.key, entry.value)) {
+        removed.set(i);
+      }
+    }
+    if (this.size != size || this.entries != entries || epoch != expectedEpoch) {
+      throw new ConcurrentModificationException();
+    }
+    if (removed.isEmpty()) {
+      return false;
+    }
+    var newSize = 0;
+    for (var i = 0; i < size; i++) {
+      if (!removed.get(i)) {
+        entries[newSize++] = entries[i];
+      }
+    }
+    Arrays.fill(entries, newSize, size, null);
+    Arrays.fill(offsets, 0);
+    index(offsets, entries, newSize);
+    this.size = newSize;
+    epoch++;
+    return true;
+  }
+
+  /**
+   * Removes all the entries whose key is contained in the collection.
+   *
+   * @param keys a collection of keys.
+   * @return true if at least one entry was removed.
+   * @see #removeIf(BiPredicate)
+   */
+  public boolean removeAllKeys(Collection<?> keys) {
+    Objects.requireNonNull(keys);
+    return removeIf((key, value) -> keys.contains(key));
+  }
+
+  /**
+   * Removes all the entries whose key is not contained in the collection.
+   *
+   * @param keys a collection of keys.
+   * @return true if at least one entry was removed.
+   * @see #removeIf(BiPredicate)
+   */
+  public boolean retainAllKeys(Collection<?> keys) {
+    Objects.requireNonNull(keys);
+    return removeIf((key, value) -> !keys.contains(key));
+  }
+
   @Override
   public void clear() {
     size = 0;
     offsets = new int[16];
     entries = (RecordEntry<K,V>[]) new RecordEntry<?,?>[8];
+    epoch++;
   }
 
   @Override
@@ -439,6 +946,73 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
     }
   }
 
+  /**
+   * Calls the action on the keys, in insertion order.
+   * Unlike {@code keySet().forEach(action)}, it does not allocate.
+   *
+   * @param action the action
+   */
+  public void forEachKey(Consumer<? super K> action) {
+    Objects.requireNonNull(action);
+    var size = this.size;
+    var entries = this.entries;
+    for (var i = 0; i < size; i++) {
+      action.accept(entries[i].key);
+    }
+  }
+
+  /**
+   * Calls the action on the values, in insertion order.
+   * Unlike {@code values().forEach(action)}, it does not allocate.
+   *
+   * @param action the action
+   */
+  public void forEachValue(Consumer<? super V> action) {
+    Objects.requireNonNull(action);
+    var size = this.size;
+    var entries = this.entries;
+    for (var i = 0; i < size; i++) {
+      action.accept(entries[i].value);
+    }
+  }
+
+  /**
+   * A function called with the position, the key and the value of an entry.
+   *
+   * @param <K> type of the key
+   * @param <V> type of the value
+   * @see #forEachIndexed(IndexedConsumer)
+   */
+  @FunctionalInterface
+  public interface IndexedConsumer<K, V> {
+    /**
+     * Performs this operation on an entry.
+     *
+     * @param index the position of the entry
+     * @param key the key of the entry
+     * @param value the value of the entry
+     */
+    void accept(int index, K key, V value);
+  }
+
+  /**
+   * Calls the action with the position, the key and the value of all the entries, in insertion order.
+   * The position can be used with {@link #setValueAt(int, Object)} to update the value
+   * during the iteration.
+   *
+   * @param action the action
+   * @see #keyAt(int)
+   */
+  public void forEachIndexed(IndexedConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    var size = this.size;
+    var entries = this.entries;
+    for (var i = 0; i < size; i++) {
+      var entry = entries[i];
+      action.accept(i, entry.key, entry.value);
+    }
+  }
+
   private static <K,V> Iterator<RecordEntry<K, V>> recordIterator(int size, RecordEntry<K,V>[] entries) {
     return new Iterator<>() {
       private int index;
@@ -458,30 +1032,50 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
     };
   }
 
-  public Set<RecordEntry<K,V>>/*Set<Map.Entry<K,V>>*/ entrySet() {
-    // snapshot
-    var size = this.size;
-    var offsets = this.offsets;
-    var entries = this.entries;
-    return new AbstractSet<>() {
-      @Override
-      public int size() {
-        return size;
-      }
+  private static final class EntrySetView<K,V> extends AbstractSet<RecordEntry<K,V>> {
+    private final int size;
+    private final int[] offsets;
+    private final RecordEntry<K,V>[] entries;
 
-      @Override
-      public Iterator<RecordEntry<K,V>> iterator() {
-        return recordIterator(size, entries);
-      }
+    private EntrySetView(int size, int[] offsets, RecordEntry<K,V>[] entries) {
+      this.size = size;
+      this.offsets = offsets;
+      this.entries = entries;
+    }
 
-      @Override
-      public boolean contains(Object o) {
-        if (!(o instanceof Map.Entry<?,?> entry)) {
-          return false;
-        }
-        return getOrDefault(offsets, entries, o, null) == null;
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Iterator<RecordEntry<K,V>> iterator() {
+      return recordIterator(size, entries);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof Map.Entry<?,?> entry) || entry.getKey() == null) {
+        return false;
       }
-    };
+      var position = position(size, offsets, entries, entry.getKey());
+      return position != -1 && entries[position].value.equals(entry.getValue());
+    }
+  }
+
+  /**
+   * Returns a view of the entries, the view is a snapshot that does not see the keys inserted after the call
+   * but sees the new values of the existing keys.
+   * The view is cached, so calling this method again without modifying the map does not allocate.
+   *
+   * @return a view of the entries.
+   */
+  public Set<RecordEntry<K,V>>/*Set<Map.Entry<K,V>>*/ entrySet() {
+    var view = entrySetView;
+    if (view == null || view.size != size || view.offsets != offsets || view.entries != entries) {
+      entrySetView = view = new EntrySetView<>(size, offsets, entries);
+    }
+    return view;
   }
 
   private static <K> Iterator<K> keyIterator(int size, RecordEntry<K,?>[] entries) {
@@ -503,27 +1097,46 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
     };
   }
 
-  public Set<K> keySet() {
-    // snapshot
-    var size = this.size;
-    var offsets = this.offsets;
-    var entries = this.entries;
-    return new AbstractSet<K>() {
-      @Override
-      public Iterator<K> iterator() {
-        return keyIterator(size, entries);
-      }
+  private static final class KeySetView<K,V> extends AbstractSet<K> {
+    private final int size;
+    private final int[] offsets;
+    private final RecordEntry<K,V>[] entries;
 
-      @Override
-      public int size() {
-        return size;
-      }
+    private KeySetView(int size, int[] offsets, RecordEntry<K,V>[] entries) {
+      this.size = size;
+      this.offsets = offsets;
+      this.entries = entries;
+    }
 
-      @Override
-      public boolean contains(Object o) {
-        return containsKey(offsets, entries, o);
-      }
-    };
+    @Override
+    public Iterator<K> iterator() {
+      return keyIterator(size, entries);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return o != null && position(size, offsets, entries, o) != -1;
+    }
+  }
+
+  /**
+   * Returns a view of the keys, the view is a snapshot that does not see the keys inserted after the call
+   * but sees the new values of the existing keys.
+   * The view is cached, so calling this method again without modifying the map does not allocate.
+   *
+   * @return a view of the keys.
+   */
+  public Set<K> keySet() {
+    var view = keySetView;
+    if (view == null || view.size != size || view.offsets != offsets || view.entries != entries) {
+      keySetView = view = new KeySetView<>(size, offsets, entries);
+    }
+    return view;
   }
 
   private static <V> Iterator<V> valueIterator(int size, RecordEntry<?,V>[] entries) {
@@ -545,36 +1158,59 @@ public class RecordMap<K,V> extends AbstractMap/*<K,V>*/ implements Iterable<Rec
     };
   }
 
-  @Override
-  public List<V>/*List<V>*/ values() {
-    // snapshot
-    var size = this.size;
-    var offsets = this.offsets;
-    var entries = this.entries;
-    return new AbstractList<>() {
-      @Override
-      public V get(int index) {
-        Objects.checkIndex(index, size);
-        return entries[index].value;
-      }
+  private static final class ValuesView<V> extends AbstractList<V> {
+    private final int size;
+    private final RecordEntry<?,V>[] entries;
 
-      @Override
-      public Iterator<V> iterator() {
-        return valueIterator(size, entries);
-      }
+    private ValuesView(int size, RecordEntry<?,V>[] entries) {
+      this.size = size;
+      this.entries = entries;
+    }
 
-      @Override
-      public boolean contains(Object o) {
-        if (!(o instanceof Map.Entry<?, ?> entry)) {
-          return false;
+    @Override
+    public V get(int index) {
+      Objects.checkIndex(index, size);
+      return entries[index].value;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      return valueIterator(size, entries);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      // the values are not indexed
+      if (o == null) {
+        return false;
+      }
+      for (var i = 0; i < size; i++) {
+        if (o.equals(entries[i].value)) {
+          return true;
         }
-        return getOrDefault(offsets, entries, entry.getKey(), null) != null;
       }
+      return false;
+    }
 
-      @Override
-      public int size() {
-        return size;
-      }
-    };
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * Returns a view of the values, the view is a snapshot that does not see the keys inserted after the call
+   * but sees the new values of the existing keys.
+   * The view is cached, so calling this method again without modifying the map does not allocate.
+   *
+   * @return a view of the values.
+   */
+  @Override
+  public List<V>/*List<V>*/ values() {
+    var view = valuesView;
+    if (view == null || view.size != size || view.entries != entries) {
+      valuesView = view = new ValuesView<>(size, entries);
+    }
+    return view;
   }
 }
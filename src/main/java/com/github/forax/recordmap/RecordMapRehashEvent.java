@@ -0,0 +1,30 @@
+package com.github.forax.recordmap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event emitted each time a {@link RecordMap} grows.
+ * The duration of the event is the time taken to rebuild the hash index and copy the entries.
+ */
+@Name("com.github.forax.recordmap.RecordMapRehash")
+@Label("RecordMap Rehash")
+@Category("RecordMap")
+@Description("Growth of the hash index and the entries of a RecordMap")
+final class RecordMapRehashEvent extends Event {
+  @Label("Old Capacity")
+  int oldCapacity;
+
+  @Label("New Capacity")
+  int newCapacity;
+
+  @Label("Size")
+  int size;
+
+  @Label("Max Probe Length")
+  @Description("Maximum number of slots skipped to insert a key in the new hash index")
+  int maxProbeLength;
+}
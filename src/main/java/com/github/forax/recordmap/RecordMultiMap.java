@@ -0,0 +1,360 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+
+/**
+ * A multimap that associates several values to a key.
+ *
+ * Like {@link RecordMap}, the keys are stored in a dense array indexed by an open addressing table
+ * of offsets. The values are not stored in one list per key but in a shared store split in chunks,
+ * each key owning a linked list of chunks whose capacity doubles, so adding a value never
+ * allocates anything but the occasional resize of the store.
+ * {@link #trimToSize()} packs the store so each key owns exactly one chunk.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public final class RecordMultiMap<K, V> implements Iterable<RecordEntry<K, V>> {
+  private static final int MAX_CHUNK_CAPACITY = 1 << 10;
+
+  private int size;
+  private int keyCount;
+  private int[] offsets;
+  private K[] keys;
+  private int[] heads;     // first chunk of each key
+  private int[] tails;     // last chunk of each key
+  private int[] counts;    // number of values of each key
+
+  private int chunkCount;
+  private int[] chunkStarts;
+  private int[] chunkSizes;
+  private int[] chunkCapacities;
+  private int[] chunkNexts;  // -1 if there is no next chunk
+
+  private int storeSize;
+  private Object[] store;
+
+  @SuppressWarnings("unchecked")
+  public RecordMultiMap() {
+    offsets = new int[2];
+    keys = (K[]) new Object[1];
+    heads = new int[1];
+    tails = new int[1];
+    counts = new int[1];
+    chunkStarts = new int[1];
+    chunkSizes = new int[1];
+    chunkCapacities = new int[1];
+    chunkNexts = new int[1];
+    store = new Object[1];
+  }
+
+  /**
+   * Returns the number of values.
+   * @return the number of values.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of distinct keys.
+   * @return the number of distinct keys.
+   */
+  public int keyCount() {
+    return keyCount;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private void rehash() {
+    var offsets = new int[this.offsets.length << 1];
+    loop: for (int i = 0; i < keyCount; i++) {
+      var index = keys[i].hashCode() & (offsets.length - 1);
+      for (; ; ) {
+        if (offsets[index] == 0) {
+          offsets[index] = i + 1;
+          continue loop;
+        }
+        // FIXME this will create clusters
+        index = (index + 1) & (offsets.length - 1);
+      }
+    }
+    this.offsets = offsets;
+    var length = keys.length << 1;
+    keys = Arrays.copyOf(keys, length);
+    heads = Arrays.copyOf(heads, length);
+    tails = Arrays.copyOf(tails, length);
+    counts = Arrays.copyOf(counts, length);
+  }
+
+  private int newChunk(int capacity) {
+    if (chunkCount == chunkStarts.length) {
+      var length = chunkCount << 1;
+      chunkStarts = Arrays.copyOf(chunkStarts, length);
+      chunkSizes = Arrays.copyOf(chunkSizes, length);
+      chunkCapacities = Arrays.copyOf(chunkCapacities, length);
+      chunkNexts = Arrays.copyOf(chunkNexts, length);
+    }
+    if (store.length - storeSize < capacity) {
+      store = Arrays.copyOf(store, Math.max(store.length << 1, storeSize + capacity));
+    }
+    var chunk = chunkCount++;
+    chunkStarts[chunk] = storeSize;
+    chunkSizes[chunk] = 0;
+    chunkCapacities[chunk] = capacity;
+    chunkNexts[chunk] = -1;
+    storeSize += capacity;
+    return chunk;
+  }
+
+  private void append(int group, Object value) {
+    var tail = tails[group];
+    if (chunkSizes[tail] == chunkCapacities[tail]) {
+      var chunk = newChunk(Math.min(counts[group], MAX_CHUNK_CAPACITY));
+      chunkNexts[tail] = chunk;
+      tails[group] = tail = chunk;
+    }
+    store[chunkStarts[tail] + chunkSizes[tail]++] = value;
+    counts[group]++;
+    size++;
+  }
+
+  /**
+   * Adds a value to the values associated to a key.
+   *
+   * @param key the key
+   * @param value the value
+   */
+  public void put(K key, V value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    var index = key.hashCode() & (offsets.length - 1);
+    int offset;
+    for (;;) {
+      if ((offset = offsets[index]) == 0) {
+        if (keys.length == keyCount) {
+          rehash();
+          index = key.hashCode() & (offsets.length - 1);
+          continue;  // restart
+        }
+        var chunk = newChunk(1);
+        var group = keyCount;
+        keys[group] = key;
+        heads[group] = chunk;
+        tails[group] = chunk;
+        counts[group] = 0;
+        offsets[index] = group + 1;
+        keyCount++;
+        append(group, value);
+        return;
+      }
+      var group = offset - 1;
+      if (key.equals(keys[group])) {
+        append(group, value);
+        return;
+      }
+      // FIXME this will create clusters
+      index = (index + 1) & (offsets.length - 1);
+    }
+  }
+
+  private int group(Object key) {
+    var index = key.hashCode() & (offsets.length - 1);
+    int offset;
+    for (;;) {
+      if ((offset = offsets[index]) == 0) {
+        return -1;
+      }
+      if (key.equals(keys[offset - 1])) {
+        return offset - 1;
+      }
+      // FIXME this will create clusters
+      index = (index + 1) & (offsets.length - 1);
+    }
+  }
+
+  public boolean containsKey(Object key) {
+    Objects.requireNonNull(key);
+    return group(key) != -1;
+  }
+
+  /**
+   * Returns a view of the values associated to a key.
+   * The view is a snapshot, values added after the call are not visible,
+   * and it should not be used after a call to {@link #trimToSize()}.
+   *
+   * @param key the key
+   * @return a list of the values associated to the key, an empty list if there is no value.
+   */
+  public List<V> get(Object key) {
+    Objects.requireNonNull(key);
+    var group = group(key);
+    if (group == -1) {
+      return List.of();
+    }
+    return new Slice<>(this, heads[group], counts[group]);
+  }
+
+  private static final class Slice<V> extends AbstractList<V> {
+    private final RecordMultiMap<?, ?> multimap;
+    private final int head;
+    private final int size;
+
+    private Slice(RecordMultiMap<?, ?> multimap, int head, int size) {
+      this.multimap = multimap;
+      this.head = head;
+      this.size = size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(int index) {
+      Objects.checkIndex(index, size);
+      var multimap = this.multimap;
+      var chunk = head;
+      while (index >= multimap.chunkSizes[chunk]) {
+        index -= multimap.chunkSizes[chunk];
+        chunk = multimap.chunkNexts[chunk];
+      }
+      return (V) multimap.store[multimap.chunkStarts[chunk] + index];
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      return valueIterator(multimap, head, size);
+    }
+  }
+
+  private static <V> Iterator<V> valueIterator(RecordMultiMap<?, ?> multimap, int head, int size) {
+    return new Iterator<>() {
+      private int chunk = head;
+      private int chunkIndex;
+      private int remaining = size;
+
+      @Override
+      public boolean hasNext() {
+        return remaining != 0;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public V next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        if (chunkIndex == multimap.chunkSizes[chunk]) {
+          chunk = multimap.chunkNexts[chunk];
+          chunkIndex = 0;
+        }
+        remaining--;
+        return (V) multimap.store[multimap.chunkStarts[chunk] + chunkIndex++];
+      }
+    };
+  }
+
+  /**
+   * Calls the action for each pair of key and value, grouped by key in insertion order.
+   * @param action the action
+   */
+  @SuppressWarnings("unchecked")
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    for (var group = 0; group < keyCount; group++) {
+      var key = keys[group];
+      for (var chunk = heads[group]; chunk != -1; chunk = chunkNexts[chunk]) {
+        var start = chunkStarts[chunk];
+        var end = start + chunkSizes[chunk];
+        for (var i = start; i < end; i++) {
+          action.accept(key, (V) store[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns an iterator on all the pairs of key and value, grouped by key in insertion order.
+   * @return an iterator on all the pairs of key and value.
+   */
+  @Override
+  public Iterator<RecordEntry<K, V>> iterator() {
+    return new Iterator<>() {
+      private final int keyCount = RecordMultiMap.this.keyCount;
+      private int group;
+      private Iterator<V> values = keyCount == 0 ? null : valueIterator(RecordMultiMap.this, heads[0], counts[0]);
+
+      @Override
+      public boolean hasNext() {
+        return group < keyCount;
+      }
+
+      @Override
+      public RecordEntry<K, V> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        var entry = new RecordEntry<>(keys[group], values.next());
+        if (!values.hasNext() && ++group < keyCount) {
+          values = valueIterator(RecordMultiMap.this, heads[group], counts[group]);
+        }
+        return entry;
+      }
+    };
+  }
+
+  /**
+   * Packs the store so the values of each key are stored in one chunk without unused slots.
+   */
+  public void trimToSize() {
+    var store = new Object[size];
+    var chunkStarts = new int[Math.max(1, keyCount)];
+    var chunkSizes = new int[chunkStarts.length];
+    var chunkCapacities = new int[chunkStarts.length];
+    var chunkNexts = new int[chunkStarts.length];
+    var storeSize = 0;
+    for (var group = 0; group < keyCount; group++) {
+      chunkStarts[group] = storeSize;
+      for (var chunk = heads[group]; chunk != -1; chunk = this.chunkNexts[chunk]) {
+        var chunkSize = this.chunkSizes[chunk];
+        System.arraycopy(this.store, this.chunkStarts[chunk], store, storeSize, chunkSize);
+        storeSize += chunkSize;
+      }
+      chunkSizes[group] = counts[group];
+      chunkCapacities[group] = counts[group];
+      chunkNexts[group] = -1;
+      heads[group] = group;
+      tails[group] = group;
+    }
+    this.store = store;
+    this.storeSize = storeSize;
+    this.chunkStarts = chunkStarts;
+    this.chunkSizes = chunkSizes;
+    this.chunkCapacities = chunkCapacities;
+    this.chunkNexts = chunkNexts;
+    this.chunkCount = keyCount;
+  }
+
+  @Override
+  public String toString() {
+    var joiner = new StringJoiner(", ", "{", "}");
+    for (var group = 0; group < keyCount; group++) {
+      joiner.add(keys[group] + "=" + new Slice<>(this, heads[group], counts[group]));
+    }
+    return joiner.toString();
+  }
+}
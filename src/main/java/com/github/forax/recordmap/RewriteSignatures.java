@@ -0,0 +1,30 @@
+package com.github.forax.recordmap;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose generic signatures are rewritten by the {@link Rewriter} at build time.
+ *
+ * The class is written using raw types and the {@link Rewriter} replaces the generic signatures
+ * of its methods by the generic signatures of the methods with the same name and descriptor
+ * of the type {@link #value()}. The raw supertypes of the class that have as many type parameters
+ * as the class are parameterized with the type variables of the class.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface RewriteSignatures {
+  /**
+   * Returns the type whose generic signatures are copied.
+   * @return the type whose generic signatures are copied.
+   */
+  Class<?> value();
+
+  /**
+   * Returns the methods, as name followed by descriptor, whose signatures should not be rewritten.
+   * @return the methods whose signatures should not be rewritten.
+   */
+  String[] excludes() default {};
+}
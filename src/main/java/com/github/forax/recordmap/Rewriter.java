@@ -1,25 +1,91 @@
 package com.github.forax.recordmap;
 
+import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Modifier;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
-import static org.objectweb.asm.Opcodes.ASM9;
+import static org.objectweb.asm.Opcodes.*;
 
+/**
+ * Rewrites at build time the classes annotated with {@link RewriteSignatures} and
+ * generates the specializations of {@link RecordMap}.
+ *
+ * The classes are rewritten in parallel and the rewriting is incremental,
+ * a class is not parsed again if the SHA-256 of its bytecode has not changed
+ * since the last run and the bytecode of the type it takes its signatures from has not changed.
+ * This information is stored in the file {@code rewriter-cache.properties} next to the directory
+ * of the classes, with the SHA-256 of the bytecode of the rewriter itself, so all the classes are
+ * rewritten again if the rewriter changes.
+ */
 public class Rewriter {
+  private static final String REWRITE_SIGNATURES = Type.getDescriptor(RewriteSignatures.class);
+  private static final String NOT_A_TARGET = "-";
+  private static final String REWRITER_KEY = "rewriter";
+  private static final String SPECIALIZATIONS_KEY = "specializations";
+
   private static String resource(Class<?> type) {
     return "/" + type.getName().replace('.', '/') + ".class";
   }
 
-  private static Map<String, String> gatherSignatureMap(Class<?> type) throws IOException {
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static String hash(byte[] bytes) {
+    return HexFormat.of().formatHex(sha256().digest(bytes));
+  }
+
+  // hash of the bytecode of the rewriter and its nested classes
+  private static String rewriterHash() throws IOException {
+    var digest = sha256();
+    for (var type : Rewriter.class.getNestMembers()) {
+      try (var inputStream = type.getResourceAsStream(resource(type))) {
+        if (inputStream == null) {
+          throw new IOException("class " + type.getName() + " bytecode not found");
+        }
+        digest.update(inputStream.readAllBytes());
+      }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private static Class<?> loadClass(String internalName) throws ClassNotFoundException {
+    return Class.forName(internalName.replace('/', '.'), false, Rewriter.class.getClassLoader());
+  }
+
+  private record SignatureSource(Map<String, String> signatureMap, String hash) {}
+
+  private static SignatureSource gatherSignatureMap(Class<?> type) throws IOException {
     var resource = resource(type);
     byte[] bytecode;
     try(var inputStream = type.getResourceAsStream(resource)) {
@@ -43,52 +109,530 @@ public class Rewriter {
           }
         },
         0);
-    return map;
+    return new SignatureSource(map, hash(bytecode));
   }
 
-  private static byte[] patch(Path path, Map<String, String> signatureMap) throws IOException {
-    byte[] bytecode;
-    try (var inputStream = Files.newInputStream(path)) {
-      bytecode = inputStream.readAllBytes();
+  private record Annotation(String signatureSource, List<String> excludes) {}
+
+  // returns the content of the annotation RewriteSignatures or null
+  private static Annotation findAnnotation(byte[] bytecode) {
+    var box = new Object() { String signatureSource; final List<String> excludes = new ArrayList<>(); };
+    new ClassReader(bytecode).accept(new ClassVisitor(ASM9) {
+      @Override
+      public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        if (!descriptor.equals(REWRITE_SIGNATURES)) {
+          return null;
+        }
+        return new AnnotationVisitor(ASM9) {
+          @Override
+          public void visit(String name, Object value) {
+            if (name.equals("value")) {
+              box.signatureSource = ((Type) value).getInternalName();
+            }
+          }
+
+          @Override
+          public AnnotationVisitor visitArray(String name) {
+            if (!name.equals("excludes")) {
+              return null;
+            }
+            return new AnnotationVisitor(ASM9) {
+              @Override
+              public void visit(String name, Object value) {
+                box.excludes.add((String) value);
+              }
+            };
+          }
+        };
+      }
+    }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    if (box.signatureSource == null) {
+      return null;
+    }
+    return new Annotation(box.signatureSource, List.copyOf(box.excludes));
+  }
+
+  // parameterize the raw supertypes that have as many type parameters as the class
+  private static String patchClassSignature(String signature) {
+    if (signature == null || !signature.startsWith("<")) {
+      return signature;
+    }
+    var typeVariables = new ArrayList<String>();
+    new SignatureReader(signature).accept(new SignatureVisitor(ASM9) {
+      @Override
+      public void visitFormalTypeParameter(String name) {
+        typeVariables.add(name);
+      }
+    });
+    var typeArguments = typeVariables.stream().map(name -> "T" + name + ";").collect(Collectors.joining("", "<", ">"));
+
+    var builder = new StringBuilder();
+    var depth = 0;
+    var start = -1;
+    for (var i = 0; i < signature.length(); i++) {
+      var c = signature.charAt(i);
+      switch (c) {
+        case '<' -> depth++;
+        case '>' -> depth--;
+        default -> {}
+      }
+      if (start == -1) {
+        builder.append(c);
+        if (c == '>' && depth == 0) {
+          start = i + 1;  // end of the formal type parameters
+        }
+        continue;
+      }
+      if (c == ';' && depth == 0) {
+        var supertype = signature.substring(start, i + 1);
+        if (supertype.indexOf('<') == -1) {
+          var name = supertype.substring(1, supertype.length() - 1);
+          int typeParameterCount;
+          try {
+            typeParameterCount = loadClass(name).getTypeParameters().length;
+          } catch (ClassNotFoundException e) {
+            typeParameterCount = 0;
+          }
+          if (typeParameterCount == typeVariables.size()) {
+            supertype = "L" + name + typeArguments + ";";
+          }
+        }
+        builder.append(supertype);
+        start = i + 1;
+      }
     }
+    return builder.toString();
+  }
 
+  private static byte[] patch(byte[] bytecode, Map<String, String> signatureMap, List<String> nestMembers, StringBuilder log) {
     var reader = new ClassReader(bytecode);
     var writer = new ClassWriter(reader, 0);
     reader.accept(
         new ClassVisitor(ASM9, writer) {
           @Override
           public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-            var patchedSignature = "<K:Ljava/lang/Object;V:Ljava/lang/Object;>Ljava/util/AbstractMap<TK;TV;>;Ljava/lang/Iterable<Lcom/github/forax/recordmap/RecordMap$RecordEntry<TK;TV;>;>;";
-            System.out.println("rewrite class signature from " + signature + " to " + patchedSignature);
+            var patchedSignature = patchClassSignature(signature);
+            log.append("rewrite class signature from ").append(signature).append(" to ").append(patchedSignature).append('\n');
             super.visit(version, access, name, patchedSignature, superName, interfaces);
           }
 
+          private boolean nestMembersAdded;
+
+          // the nest members added by a previous run are replaced by the ones of the current key types
+          private void addNestMembers() {
+            if (!nestMembersAdded) {
+              nestMembersAdded = true;
+              for (var member : nestMembers) {
+                log.append("add nest member ").append(member).append('\n');
+                super.visitNestMember(member);
+              }
+            }
+          }
+
+          @Override
+          public void visitNestMember(String nestMember) {
+            addNestMembers();
+            if (isGeneratedNestMember(nestMember)) {
+              return;
+            }
+            super.visitNestMember(nestMember);
+          }
+
           @Override
           public MethodVisitor visitMethod(
               int access, String name, String descriptor, String signature, String[] exceptions) {
             var patchedSignature = signatureMap.get(name + descriptor);
             if (patchedSignature != null) {
               if (!patchedSignature.equals(signature)) {
-                System.out.println("rewrite " + name + descriptor + " from " + signature + " to " + patchedSignature);
+                log.append("rewrite ").append(name).append(descriptor).append(" from ").append(signature).append(" to ").append(patchedSignature).append('\n');
               }
               signature = patchedSignature;
             }
             return writer.visitMethod(access, name, descriptor, signature, exceptions);
           }
+
+          @Override
+          public void visitEnd() {
+            addNestMembers();
+            super.visitEnd();
+          }
         },
         0);
     return writer.toByteArray();
   }
 
-  public static void main(String[] args) throws IOException {
-    var recordMapPath = Path.of("target/classes" + resource(RecordMap.class));
+  private static final String RECORD_MAP = "com/github/forax/recordmap/RecordMap";
+
+  // the nest members generated by javac are nested classes, their names start with the name of the host
+  private static boolean isGeneratedNestMember(String nestMember) {
+    return !nestMember.startsWith(RECORD_MAP + "$");
+  }
+  private static final String RECORD_ENTRY_ARRAY = "[L" + RECORD_MAP + "$RecordEntry;";
+  private static final String GET_OR_DEFAULT = "([I" + RECORD_ENTRY_ARRAY + "Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+  private static final String CONTAINS_KEY = "([I" + RECORD_ENTRY_ARRAY + "Ljava/lang/Object;)Z";
+
+  static String specializationName(Class<?> keyType) {
+    return "com/github/forax/recordmap/" + keyType.getSimpleName() + "KeyRecordMap";
+  }
+
+  /**
+   * Generates a subclass of RecordMap specialized for a key type.
+   * The static methods getOrDefault() and containsKey() used by the lookups are copied
+   * from RecordMap and the calls to Object.hashCode() and Object.equals() on the key
+   * are retargeted to the key type, so they are not megamorphic anymore.
+   * The specialization is a nestmate of RecordMap so it can access its private fields.
+   *
+   * @throws IllegalStateException if one of the static methods is not found in RecordMap.
+   */
+  static byte[] specialize(byte[] recordMapBytecode, Class<?> keyType) {
+    var name = specializationName(keyType);
+    var keyTypeName = Type.getInternalName(keyType);
+    var reader = new ClassReader(recordMapBytecode);
+    var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    var version = reader.readInt(4);
+    writer.visit(version, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name,
+        "<K:Ljava/lang/Object;V:Ljava/lang/Object;>L" + RECORD_MAP + "<TK;TV;>;", RECORD_MAP, null);
+    writer.visitNestHost(RECORD_MAP);
+    writer.visitField(ACC_STATIC | ACC_FINAL, "KEY_TYPE", "Ljava/lang/Class;", "Ljava/lang/Class<*>;", null).visitEnd();
+
+    var clinit = writer.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+    clinit.visitCode();
+    clinit.visitLdcInsn(Type.getType(keyType));
+    clinit.visitFieldInsn(PUTSTATIC, name, "KEY_TYPE", "Ljava/lang/Class;");
+    clinit.visitInsn(RETURN);
+    clinit.visitMaxs(0, 0);
+    clinit.visitEnd();
+
+    var init = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+    init.visitCode();
+    init.visitVarInsn(ALOAD, 0);
+    init.visitMethodInsn(INVOKESPECIAL, RECORD_MAP, "<init>", "()V", false);
+    init.visitInsn(RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+
+    // copy getOrDefault() and containsKey()
+    var helpers = new ArrayList<String>();
+    reader.accept(new ClassVisitor(ASM9) {
+      @Override
+      public MethodVisitor visitMethod(int access, String methodName, String descriptor, String signature, String[] exceptions) {
+        if ((access & ACC_STATIC) == 0 ||
+            !((methodName.equals("getOrDefault") && descriptor.equals(GET_OR_DEFAULT)) ||
+              (methodName.equals("containsKey") && descriptor.equals(CONTAINS_KEY)))) {
+          return null;
+        }
+        helpers.add(methodName);
+        var mv = writer.visitMethod(access, methodName, descriptor, signature, exceptions);
+        return new MethodVisitor(ASM9, mv) {
+          @Override
+          public void visitMethodInsn(int opcode, String owner, String method, String methodDescriptor, boolean isInterface) {
+            if (opcode == INVOKEVIRTUAL && owner.equals("java/lang/Object")) {
+              switch (method + methodDescriptor) {
+                case "hashCode()I" -> {
+                  super.visitTypeInsn(CHECKCAST, keyTypeName);
+                  super.visitMethodInsn(INVOKEVIRTUAL, keyTypeName, method, methodDescriptor, false);
+                  return;
+                }
+                case "equals(Ljava/lang/Object;)Z" -> {
+                  super.visitInsn(SWAP);
+                  super.visitTypeInsn(CHECKCAST, keyTypeName);
+                  super.visitInsn(SWAP);
+                  super.visitMethodInsn(INVOKEVIRTUAL, keyTypeName, method, methodDescriptor, false);
+                  return;
+                }
+                default -> {}
+              }
+            }
+            super.visitMethodInsn(opcode, owner, method, methodDescriptor, isInterface);
+          }
+        };
+      }
+    }, 0);
+    if (!helpers.contains("getOrDefault") || !helpers.contains("containsKey")) {
+      throw new IllegalStateException("static methods getOrDefault" + GET_OR_DEFAULT + " and containsKey" + CONTAINS_KEY +
+          " not found in " + reader.getClassName() + ", only found " + helpers);
+    }
+
+    // public Object getOrDefault(Object key, Object defaultValue)
+    // public Object get(Object key)
+    // public boolean containsKey(Object key)
+    generateLookup(writer, name, keyTypeName, "getOrDefault", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;",
+        "(Ljava/lang/Object;TV;)TV;", GET_OR_DEFAULT);
+    generateLookup(writer, name, keyTypeName, "get", "(Ljava/lang/Object;)Ljava/lang/Object;",
+        "(Ljava/lang/Object;)TV;", GET_OR_DEFAULT);
+    generateLookup(writer, name, keyTypeName, "containsKey", "(Ljava/lang/Object;)Z",
+        null, CONTAINS_KEY);
+
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private static void generateLookup(ClassWriter writer, String name, String keyTypeName,
+                                     String methodName, String descriptor, String signature, String helperDescriptor) {
+    var returnsBoolean = descriptor.endsWith("Z");
+    var hasDefaultValue = Type.getArgumentTypes(descriptor).length == 2;
+    var mv = writer.visitMethod(ACC_PUBLIC, methodName, descriptor, signature, null);
+    mv.visitCode();
+    mv.visitVarInsn(ALOAD, 1);
+    mv.visitMethodInsn(INVOKESTATIC, "java/util/Objects", "requireNonNull", "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+    mv.visitInsn(POP);
+
+    // a key of another type can not be in the map
+    var found = new Label();
+    mv.visitVarInsn(ALOAD, 1);
+    mv.visitTypeInsn(INSTANCEOF, keyTypeName);
+    mv.visitJumpInsn(IFNE, found);
+    if (returnsBoolean) {
+      mv.visitInsn(ICONST_0);
+      mv.visitInsn(IRETURN);
+    } else {
+      if (hasDefaultValue) {
+        mv.visitVarInsn(ALOAD, 2);
+      } else {
+        mv.visitInsn(ACONST_NULL);
+      }
+      mv.visitInsn(ARETURN);
+    }
+    mv.visitLabel(found);
+    mv.visitFrame(F_SAME, 0, null, 0, null);
+
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitFieldInsn(GETFIELD, RECORD_MAP, "offsets", "[I");
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitFieldInsn(GETFIELD, RECORD_MAP, "entries", RECORD_ENTRY_ARRAY);
+    mv.visitVarInsn(ALOAD, 1);
+    if (!returnsBoolean) {
+      if (hasDefaultValue) {
+        mv.visitVarInsn(ALOAD, 2);
+      } else {
+        mv.visitInsn(ACONST_NULL);
+      }
+    }
+    mv.visitMethodInsn(INVOKESTATIC, name, returnsBoolean ? "containsKey" : "getOrDefault", helperDescriptor, false);
+    mv.visitInsn(returnsBoolean ? IRETURN : ARETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  private static List<Class<?>> keyTypes(String[] args) {
+    var keyTypes = new ArrayList<Class<?>>();
+    var names = new HashSet<String>();
+    for (var arg : args) {
+      Class<?> keyType;
+      try {
+        keyType = Class.forName(arg, false, Rewriter.class.getClassLoader());
+      } catch (ClassNotFoundException e) {
+        throw new IllegalArgumentException("unknown key type " + arg, e);
+      }
+      if (!Modifier.isFinal(keyType.getModifiers()) || keyType.isArray() || keyType.isPrimitive()) {
+        throw new IllegalArgumentException("key type " + arg + " should be a final class");
+      }
+      if (!names.add(specializationName(keyType))) {
+        throw new IllegalArgumentException("key type " + arg + " has the same simple name as another key type");
+      }
+      keyTypes.add(keyType);
+    }
+    return keyTypes;
+  }
+
+  private final Path classes;
+  private final List<Class<?>> keyTypes;
+  private final String rewriterHash;
+  private final Map<String, String> cache;
+  private final List<String> previousSpecializations;
+  private final ConcurrentHashMap<String, String> newCache = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, SignatureSource> signatureSources = new ConcurrentHashMap<>();
+
+  private Rewriter(Path classes, List<Class<?>> keyTypes, String rewriterHash, Map<String, String> cache) {
+    this.classes = classes;
+    this.keyTypes = keyTypes;
+    this.rewriterHash = rewriterHash;
+    var specializations = cache.getOrDefault(SPECIALIZATIONS_KEY, "");
+    this.previousSpecializations = specializations.isEmpty() ? List.of() : List.of(specializations.split(","));
+    // if the rewriter has changed, the entries of the cache are not valid anymore
+    this.cache = rewriterHash.equals(cache.get(REWRITER_KEY)) ? cache : Map.of();
+  }
+
+  private static Path cachePath(Path classes) {
+    return classes.resolveSibling("rewriter-cache.properties");
+  }
+
+  private Path cachePath() {
+    return cachePath(classes);
+  }
+
+  private static Map<String, String> loadCache(Path path) throws IOException {
+    var properties = new Properties();
+    if (Files.exists(path)) {
+      try (var reader = Files.newBufferedReader(path)) {
+        properties.load(reader);
+      }
+    }
+    var map = new HashMap<String, String>();
+    properties.forEach((key, value) -> map.put((String) key, (String) value));
+    return map;
+  }
+
+  private void saveCache() throws IOException {
+    var properties = new Properties();
+    properties.putAll(new TreeMap<>(newCache));
+    try (var writer = Files.newBufferedWriter(cachePath())) {
+      properties.store(writer, "Rewriter cache, do not edit");
+    }
+  }
+
+  private SignatureSource signatureSource(String internalName) {
+    return signatureSources.computeIfAbsent(internalName, name -> {
+      try {
+        return gatherSignatureMap(loadClass(name));
+      } catch (ClassNotFoundException e) {
+        throw new IllegalStateException("signature source " + name + " not found", e);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
 
-    var map = gatherSignatureMap(Map.class);
 
-    // do not rewrite entrySet()
-    map.remove("entrySet()Ljava/util/Set;");
+  private List<String> nestMembers(String className) {
+    if (!className.equals(RECORD_MAP)) {
+      return List.of();
+    }
+    return keyTypes.stream().map(Rewriter::specializationName).toList();
+  }
+
+  // cache entry of a target: stamp|signature source|signature source hash|nest members
+  private String cacheEntry(String stamp, Annotation annotation, String className) {
+    var signatureSource = annotation.signatureSource;
+    return stamp + "|" + signatureSource + "|" + signatureSource(signatureSource).hash + "|" + String.join(",", nestMembers(className));
+  }
+
+  private boolean isUpToDate(String key, String stamp, String className) {
+    var entry = cache.get(key);
+    if (entry == null || !entry.startsWith(stamp + "|")) {
+      return false;
+    }
+    var parts = entry.split("\\|", -1);
+    if (parts[1].equals(NOT_A_TARGET)) {
+      return true;
+    }
+    return parts.length == 4 &&
+        parts[3].equals(String.join(",", nestMembers(className))) &&
+        parts[2].equals(signatureSource(parts[1]).hash);
+  }
+
+  enum Status { SKIPPED, IGNORED, REWRITTEN, DELETED }
+
+  private Status process(Path path) {
+    try {
+      var key = classes.relativize(path).toString().replace('\\', '/');
+      var className = key.substring(0, key.length() - ".class".length());
+      // the stamp is a digest of the content, a size and a modified time can stay the same
+      // when the content changes, or change, after a checkout, when the content does not
+      var bytecode = Files.readAllBytes(path);
+      var stamp = hash(bytecode);
+      if (isUpToDate(key, stamp, className)) {
+        newCache.put(key, cache.get(key));
+        return Status.SKIPPED;
+      }
+      var annotation = findAnnotation(bytecode);
+      if (annotation == null) {
+        newCache.put(key, stamp + "|" + NOT_A_TARGET);
+        return Status.IGNORED;
+      }
+
+      var start = System.nanoTime();
+      var log = new StringBuilder();
+      var signatureMap = new HashMap<>(signatureSource(annotation.signatureSource).signatureMap);
+      annotation.excludes.forEach(signatureMap::remove);
+      var patched = patch(bytecode, signatureMap, nestMembers(className), log);
+      Files.write(path, patched);
+      newCache.put(key, cacheEntry(hash(patched), annotation, className));
+      var time = (System.nanoTime() - start) / 1_000_000;
+      System.out.print(log.append("rewrite ").append(className).append(" in ").append(time).append(" ms\n"));
+      return Status.REWRITTEN;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Status generateSpecialization(Class<?> keyType) {
+    try {
+      var name = specializationName(keyType);
+      var output = classes.resolve(name + ".class");
+      var recordMapPath = classes.resolve(RECORD_MAP + ".class");
+      var key = name + ".class";
+      var recordMap = Files.readAllBytes(recordMapPath);
+      var entry = hash(recordMap) + "|" + keyType.getName();
+      if (entry.equals(cache.get(key)) && Files.exists(output)) {
+        newCache.put(key, entry);
+        return Status.SKIPPED;
+      }
+      var start = System.nanoTime();
+      var specialization = specialize(recordMap, keyType);
+      Files.write(output, specialization);
+      newCache.put(key, entry);
+      var time = (System.nanoTime() - start) / 1_000_000;
+      System.out.println("generate " + name + " for key type " + keyType.getName() + " in " + time + " ms");
+      return Status.REWRITTEN;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Map<Status, Integer> run() throws IOException {
+    var start = System.nanoTime();
+    var specializations = keyTypes.stream().map(keyType -> specializationName(keyType) + ".class").toList();
+    var counters = new ConcurrentHashMap<Status, AtomicInteger>();
+    // the specializations of the key types not listed anymore are not nest members of RecordMap anymore
+    for (var specialization : previousSpecializations) {
+      if (!specializations.contains(specialization) && Files.deleteIfExists(classes.resolve(specialization))) {
+        System.out.println("delete " + specialization);
+        counters.computeIfAbsent(Status.DELETED, __ -> new AtomicInteger()).incrementAndGet();
+      }
+    }
+    List<Path> paths;
+    try (var stream = Files.walk(classes)) {
+      paths = stream.filter(path -> path.toString().endsWith(".class")).toList();
+    }
+    paths.parallelStream()
+        .filter(path -> !specializations.contains(classes.relativize(path).toString().replace('\\', '/')))
+        .map(this::process)
+        .forEach(status -> counters.computeIfAbsent(status, __ -> new AtomicInteger()).incrementAndGet());
+    keyTypes.parallelStream()
+        .map(this::generateSpecialization)
+        .forEach(status -> counters.computeIfAbsent(status, __ -> new AtomicInteger()).incrementAndGet());
+    newCache.put(REWRITER_KEY, rewriterHash);
+    newCache.put(SPECIALIZATIONS_KEY, String.join(",", specializations));
+    saveCache();
+    var time = (System.nanoTime() - start) / 1_000_000;
+    System.out.println("rewriter: " + counter(counters, Status.REWRITTEN) + " classes rewritten or generated, " +
+        counter(counters, Status.SKIPPED) + " up to date, " + counter(counters, Status.IGNORED) + " ignored, " +
+        counter(counters, Status.DELETED) + " deleted in " + time + " ms");
+    var result = new EnumMap<Status, Integer>(Status.class);
+    for (var status : Status.values()) {
+      result.put(status, counter(counters, status));
+    }
+    return result;
+  }
+
+  private static int counter(Map<Status, AtomicInteger> counters, Status status) {
+    var counter = counters.get(status);
+    return counter == null ? 0 : counter.get();
+  }
+
+  /**
+   * Rewrites the classes annotated with {@link RewriteSignatures} in {@code target/classes} and
+   * generates the specializations of RecordMap for the key types (fully qualified class names)
+   * passed as arguments.
+   */
+  public static void main(String[] args) throws IOException {
+    rewrite(Path.of("target/classes"), args);
+  }
 
-    var bytecode = patch(recordMapPath, map);
-    Files.write(recordMapPath, bytecode);
+  // returns the number of classes per status
+  static Map<Status, Integer> rewrite(Path classes, String... keyTypeNames) throws IOException {
+    var rewriter = new Rewriter(classes, keyTypes(keyTypeNames), rewriterHash(), loadCache(cachePath(classes)));
+    return rewriter.run();
   }
 }
@@ -0,0 +1,331 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * A map split into independent {@link RecordMap}s, the shards, so it can store more entries
+ * than a single {@link RecordMap}.
+ *
+ * A key is routed to a shard using the high bits of its mixed hash code, the shards use the low bits
+ * of the hash code for their own index, so both are independent.
+ * Each shard grows on its own, so a resize only copies the arrays of one shard and
+ * there is no huge contiguous array. Iteration walks the shards in order, the entries of
+ * a shard are in insertion order.
+ * The parallel bulk operations ({@link #parallelForEach(BiConsumer)},
+ * {@link #parallelReplaceAll(BiFunction)} and {@link #parallelRemoveIf(BiPredicate)})
+ * run one task per shard, the shards should not be modified concurrently otherwise.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public final class ShardedRecordMap<K, V> implements Iterable<RecordEntry<K, V>> {
+  private static final int MAX_SHARD_SIZE = 1 << 29;
+
+  private final int shift;
+  private final RecordMap<K, V>[] shards;
+
+  /**
+   * Creates a map with 64 shards.
+   */
+  public ShardedRecordMap() {
+    this(64, 0);
+  }
+
+  /**
+   * Creates a map able to store {@code expectedSize} entries without having to grow,
+   * if the keys are evenly distributed.
+   *
+   * @param shardCount the number of shards, rounded to the next power of 2.
+   * @param expectedSize the expected number of entries.
+   * @throws IllegalArgumentException if the shard count is not between 1 and 2^16, or
+   *   if the expected size is negative or too big for the number of shards.
+   */
+  @SuppressWarnings("unchecked")
+  public ShardedRecordMap(int shardCount, long expectedSize) {
+    if (shardCount <= 0 || shardCount > 1 << 16) {
+      throw new IllegalArgumentException("invalid shard count " + shardCount);
+    }
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("expectedSize < 0");
+    }
+    var count = shardCount == 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+    var shardSize = (expectedSize + count - 1) / count;
+    if (shardSize > MAX_SHARD_SIZE) {
+      throw new IllegalArgumentException("too many entries per shard, use more shards " + expectedSize);
+    }
+    shift = 32 - Integer.numberOfTrailingZeros(count);
+    shards = (RecordMap<K, V>[]) new RecordMap<?, ?>[count];
+    for (var i = 0; i < shards.length; i++) {
+      shards[i] = shardSize == 0 ? new RecordMap<>() : new RecordMap<>((int) shardSize);
+    }
+  }
+
+  private RecordMap<K, V> shard(Object key) {
+    // shift == 32 means one shard, and a shift by 32 is a shift by 0 in Java
+    return shift == 32 ? shards[0] : shards[(key.hashCode() * 0x9E3779B9) >>> shift];
+  }
+
+  /**
+   * Returns the number of shards.
+   * @return the number of shards.
+   */
+  public int shardCount() {
+    return shards.length;
+  }
+
+  /**
+   * Returns a shard.
+   * The entries of a shard can be read or updated directly,
+   * but a key should only be inserted in the shard it is routed to.
+   *
+   * @param index the index of the shard
+   * @return the shard at the index.
+   */
+  public RecordMap<K, V> shard(int index) {
+    Objects.checkIndex(index, shards.length);
+    return shards[index];
+  }
+
+  /**
+   * Returns the number of entries, which can be more than {@link Integer#MAX_VALUE}.
+   * @return the number of entries.
+   */
+  public long size() {
+    var size = 0L;
+    for (var shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  /**
+   * Returns true if the map is empty.
+   * @return true if the map is empty.
+   */
+  public boolean isEmpty() {
+    for (var shard : shards) {
+      if (!shard.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the value associated to a key.
+   *
+   * @param key the key
+   * @return the value associated to the key or null.
+   */
+  public V get(Object key) {
+    Objects.requireNonNull(key);
+    return shard(key).get(key);
+  }
+
+  /**
+   * Returns the value associated to a key or a default value.
+   *
+   * @param key the key
+   * @param defaultValue the default value
+   * @return the value associated to the key or the default value.
+   */
+  public V getOrDefault(Object key, V defaultValue) {
+    Objects.requireNonNull(key);
+    return shard(key).getOrDefault(key, defaultValue);
+  }
+
+  /**
+   * Returns true if the key is present.
+   *
+   * @param key the key
+   * @return true if the key is present.
+   */
+  public boolean containsKey(Object key) {
+    Objects.requireNonNull(key);
+    return shard(key).containsKey(key);
+  }
+
+  /**
+   * Associates a value to a key.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the previous value or null.
+   * @see RecordMap#put(Object, Object)
+   */
+  public V put(K key, V value) {
+    Objects.requireNonNull(key);
+    return shard(key).put(key, value);
+  }
+
+  /**
+   * Associates a value to a key if the key is not present.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the existing value or null.
+   * @see RecordMap#putIfAbsent(Object, Object)
+   */
+  public V putIfAbsent(K key, V value) {
+    Objects.requireNonNull(key);
+    return shard(key).putIfAbsent(key, value);
+  }
+
+  /**
+   * Associates the value computed by the function to the key if the key is not present.
+   *
+   * @param key the key
+   * @param function the function called if the key is not present.
+   * @return the existing value or the computed value.
+   * @see RecordMap#computeIfAbsent(Object, Function)
+   */
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> function) {
+    Objects.requireNonNull(key);
+    return shard(key).computeIfAbsent(key, function);
+  }
+
+  /**
+   * Associates the value computed by the function from the key and the existing value
+   * (or null) to the key.
+   *
+   * @param key the key
+   * @param function the function that computes the new value.
+   * @return the new value.
+   * @see RecordMap#compute(Object, BiFunction)
+   */
+  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+    Objects.requireNonNull(key);
+    return shard(key).compute(key, function);
+  }
+
+  /**
+   * Associates the value to the key if the key is not present, otherwise associates the result
+   * of the function on the existing value and the value.
+   *
+   * @param key the key
+   * @param value the value
+   * @param function the function that combines the existing value and the value.
+   * @return the new value.
+   * @see RecordMap#merge(Object, Object, BiFunction)
+   */
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> function) {
+    Objects.requireNonNull(key);
+    return shard(key).merge(key, value, function);
+  }
+
+  /**
+   * Removes all the entries that satisfy the predicate, shard by shard.
+   *
+   * @param predicate a predicate on the key and the value of the entries to remove.
+   * @return true if at least one entry was removed.
+   * @see RecordMap#removeIf(BiPredicate)
+   */
+  public boolean removeIf(BiPredicate<? super K, ? super V> predicate) {
+    Objects.requireNonNull(predicate);
+    var removed = false;
+    for (var shard : shards) {
+      removed |= shard.removeIf(predicate);
+    }
+    return removed;
+  }
+
+  /**
+   * Removes all the entries.
+   */
+  public void clear() {
+    for (var shard : shards) {
+      shard.clear();
+    }
+  }
+
+  /**
+   * Calls the action on all the entries, shard by shard.
+   *
+   * @param action the action
+   */
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    for (var shard : shards) {
+      shard.forEach(action);
+    }
+  }
+
+  /**
+   * Calls the action on all the entries, the shards are visited in parallel
+   * so the action should be thread safe.
+   *
+   * @param action the action
+   */
+  public void parallelForEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    IntStream.range(0, shards.length).parallel().forEach(i -> shards[i].forEach(action));
+  }
+
+  /**
+   * Replaces the value of all the entries by the result of the function,
+   * the shards are updated in parallel.
+   *
+   * @param function the function that computes the new value from the key and the value.
+   */
+  public void parallelReplaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+    Objects.requireNonNull(function);
+    IntStream.range(0, shards.length).parallel().forEach(i -> shards[i].replaceAll(function));
+  }
+
+  /**
+   * Removes all the entries that satisfy the predicate, the shards are compacted in parallel.
+   *
+   * @param predicate a predicate on the key and the value of the entries to remove.
+   * @return true if at least one entry was removed.
+   */
+  public boolean parallelRemoveIf(BiPredicate<? super K, ? super V> predicate) {
+    Objects.requireNonNull(predicate);
+    return IntStream.range(0, shards.length).parallel()
+        .mapToObj(i -> shards[i].removeIf(predicate))
+        .reduce(false, Boolean::logicalOr);
+  }
+
+  @Override
+  public Iterator<RecordEntry<K, V>> iterator() {
+    return new Iterator<>() {
+      private int shardIndex;
+      private Iterator<RecordEntry<K, V>> iterator = shards[0].iterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!iterator.hasNext()) {
+          if (shardIndex == shards.length - 1) {
+            return false;
+          }
+          iterator = shards[++shardIndex].iterator();
+        }
+        return true;
+      }
+
+      @Override
+      public RecordEntry<K, V> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return iterator.next();
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    var joiner = new StringJoiner(", ", "{", "}");
+    forEach((key, value) -> joiner.add(key + "=" + value));
+    return joiner.toString();
+  }
+}
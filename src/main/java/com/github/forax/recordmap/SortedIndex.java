@@ -0,0 +1,219 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+
+import java.util.AbstractList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A sorted index on the keys of a {@link RecordMap}, created by {@link RecordMap#sortedIndex(Comparator)}.
+ *
+ * The index is a permutation of the positions of the entries of the map sorted by key.
+ * It is updated lazily, when a range is requested, the entries added since the last update are
+ * sorted and merged into the permutation. If some entries were removed from the map,
+ * the permutation is rebuilt.
+ *
+ * The ranges are views of the map sorted by key, they are snapshots of the keys of the map
+ * when they are created, like the views of {@link RecordMap}.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public final class SortedIndex<K, V> {
+  private final RecordMap<K, V> map;
+  private final Comparator<? super K> comparator;
+  private int[] permutation = new int[0];
+  private int epoch;
+
+  SortedIndex(RecordMap<K, V> map, Comparator<? super K> comparator) {
+    this.map = map;
+    this.comparator = comparator;
+    this.epoch = map.epoch();
+  }
+
+  private int[] update() {
+    var permutation = this.permutation;
+    if (epoch != map.epoch()) {
+      permutation = new int[0];
+      epoch = map.epoch();
+    }
+    var indexedSize = permutation.length;
+    var size = map.size();
+    if (indexedSize == size) {
+      return permutation;
+    }
+    var added = new int[size - indexedSize];
+    for (var i = 0; i < added.length; i++) {
+      added[i] = indexedSize + i;
+    }
+    sort(added);
+    return this.permutation = merge(permutation, added);
+  }
+
+  private int compare(int position1, int position2) {
+    return comparator.compare(map.keyAt(position1), map.keyAt(position2));
+  }
+
+  // bottom-up merge sort of positions
+  private void sort(int[] positions) {
+    var buffer = new int[positions.length];
+    var source = positions;
+    var destination = buffer;
+    for (var width = 1; width < positions.length; width <<= 1) {
+      for (var start = 0; start < positions.length; start += width << 1) {
+        var middle = Math.min(start + width, positions.length);
+        var end = Math.min(start + (width << 1), positions.length);
+        merge(source, start, middle, source, middle, end, destination, start);
+      }
+      var tmp = source;
+      source = destination;
+      destination = tmp;
+    }
+    if (source != positions) {
+      System.arraycopy(source, 0, positions, 0, positions.length);
+    }
+  }
+
+  private int[] merge(int[] positions1, int[] positions2) {
+    var merged = new int[positions1.length + positions2.length];
+    merge(positions1, 0, positions1.length, positions2, 0, positions2.length, merged, 0);
+    return merged;
+  }
+
+  private void merge(int[] array1, int start1, int end1, int[] array2, int start2, int end2, int[] destination, int index) {
+    while (start1 < end1 && start2 < end2) {
+      destination[index++] = compare(array1[start1], array2[start2]) <= 0 ? array1[start1++] : array2[start2++];
+    }
+    System.arraycopy(array1, start1, destination, index, end1 - start1);
+    System.arraycopy(array2, start2, destination, index + end1 - start1, end2 - start2);
+  }
+
+  // returns the index of the first key greater than (or equal to if inclusive) the key
+  private int lowerBound(int[] permutation, K key, boolean inclusive) {
+    var low = 0;
+    var high = permutation.length;
+    while (low < high) {
+      var middle = (low + high) >>> 1;
+      var comparison = comparator.compare(map.keyAt(permutation[middle]), key);
+      if (comparison < 0 || (comparison == 0 && !inclusive)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static final class RangeView<K, V> extends AbstractList<RecordEntry<K, V>> implements RandomAccess {
+    private final RecordMap<K, V> map;
+    private final int[] permutation;
+    private final int from;
+    private final int size;
+
+    private RangeView(RecordMap<K, V> map, int[] permutation, int from, int to) {
+      this.map = map;
+      this.permutation = permutation;
+      this.from = from;
+      this.size = Math.max(0, to - from);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public RecordEntry<K, V> get(int index) {
+      Objects.checkIndex(index, size);
+      return map.entryAt(permutation[from + index]);
+    }
+  }
+
+  /**
+   * Returns all the entries of the map sorted by key.
+   * @return all the entries of the map sorted by key.
+   */
+  public List<RecordEntry<K, V>> entries() {
+    var permutation = update();
+    return new RangeView<>(map, permutation, 0, permutation.length);
+  }
+
+  /**
+   * Returns the entries whose keys are between two keys, sorted by key.
+   *
+   * @param fromKey the lower bound
+   * @param fromInclusive true if the lower bound is included.
+   * @param toKey the upper bound
+   * @param toInclusive true if the upper bound is included.
+   * @return the entries whose keys are between the two keys.
+   */
+  public List<RecordEntry<K, V>> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+    Objects.requireNonNull(fromKey);
+    Objects.requireNonNull(toKey);
+    var permutation = update();
+    var from = lowerBound(permutation, fromKey, fromInclusive);
+    var to = lowerBound(permutation, toKey, !toInclusive);
+    return new RangeView<>(map, permutation, from, to);
+  }
+
+  /**
+   * Returns the entries whose keys are greater or equals to {@code fromKey} and
+   * strictly lower than {@code toKey}, sorted by key.
+   *
+   * @param fromKey the lower bound, inclusive
+   * @param toKey the upper bound, exclusive
+   * @return the entries whose keys are between the two keys.
+   */
+  public List<RecordEntry<K, V>> subMap(K fromKey, K toKey) {
+    return subMap(fromKey, true, toKey, false);
+  }
+
+  /**
+   * Returns the entries whose keys are lower than a key, sorted by key.
+   *
+   * @param toKey the upper bound
+   * @param inclusive true if the upper bound is included.
+   * @return the entries whose keys are lower than the key.
+   */
+  public List<RecordEntry<K, V>> headMap(K toKey, boolean inclusive) {
+    Objects.requireNonNull(toKey);
+    var permutation = update();
+    return new RangeView<>(map, permutation, 0, lowerBound(permutation, toKey, !inclusive));
+  }
+
+  /**
+   * Returns the entries whose keys are strictly lower than a key, sorted by key.
+   *
+   * @param toKey the upper bound, exclusive
+   * @return the entries whose keys are lower than the key.
+   */
+  public List<RecordEntry<K, V>> headMap(K toKey) {
+    return headMap(toKey, false);
+  }
+
+  /**
+   * Returns the entries whose keys are greater than a key, sorted by key.
+   *
+   * @param fromKey the lower bound
+   * @param inclusive true if the lower bound is included.
+   * @return the entries whose keys are greater than the key.
+   */
+  public List<RecordEntry<K, V>> tailMap(K fromKey, boolean inclusive) {
+    Objects.requireNonNull(fromKey);
+    var permutation = update();
+    return new RangeView<>(map, permutation, lowerBound(permutation, fromKey, inclusive), permutation.length);
+  }
+
+  /**
+   * Returns the entries whose keys are greater or equals to a key, sorted by key.
+   *
+   * @param fromKey the lower bound, inclusive
+   * @return the entries whose keys are greater than the key.
+   */
+  public List<RecordEntry<K, V>> tailMap(K fromKey) {
+    return tailMap(fromKey, true);
+  }
+}
@@ -0,0 +1,104 @@
+package com.github.forax.recordmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Measures the number of calls to a slow backend and the latency of the requests of many
+ * virtual threads, first using an {@link AsyncRecordCache} shared by all the threads,
+ * then loading the missing values naively, each thread calling the backend for each of its misses
+ * and keeping the values in its own map.
+ *
+ * The backend sleeps for a fixed delay per call, whatever the number of keys loaded by the call.
+ *
+ * Usage: {@code AsyncRecordCacheBenchmark [threads] [keys] [backendDelayMillis]}, by default
+ * 10_000 threads, 1_000 keys and 10 ms, each thread does 20 requests on random keys.
+ */
+public class AsyncRecordCacheBenchmark {
+  private static final int REQUESTS = 20;
+
+  private interface Loader {
+    Integer load(int thread, Integer key);
+  }
+
+  private static Function<Set<Integer>, Map<Integer, Integer>> backend(AtomicInteger calls, long delay) {
+    return keys -> {
+      calls.incrementAndGet();
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      var values = new HashMap<Integer, Integer>();
+      for (var key : keys) {
+        values.put(key, -key);
+      }
+      return values;
+    };
+  }
+
+  // returns the latencies of all the requests in ns
+  private static long[] run(int threads, int keys, Loader loader) throws InterruptedException {
+    var latencies = new long[threads * REQUESTS];
+    var errors = new AtomicInteger();
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (var thread = 0; thread < threads; thread++) {
+        var t = thread;
+        executor.execute(() -> {
+          var random = new SplittableRandom(t);
+          for (var i = 0; i < REQUESTS; i++) {
+            Integer key = random.nextInt(keys);
+            var start = System.nanoTime();
+            var value = loader.load(t, key);
+            latencies[t * REQUESTS + i] = System.nanoTime() - start;
+            if (value != -key) {
+              errors.incrementAndGet();
+            }
+          }
+        });
+      }
+    }
+    if (errors.get() != 0) {
+      throw new AssertionError(errors.get() + " wrong values");
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  private static void report(String name, AtomicInteger calls, long[] latencies, long time) {
+    System.out.printf("%-10s %7d backend calls, p50 %7.2f ms, p99 %7.2f ms, max %7.2f ms, total %6d ms%n",
+        name, calls.get(),
+        latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * .99)] / 1e6,
+        latencies[latencies.length - 1] / 1e6, time / 1_000_000);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    var threads = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+    var keys = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+    var delay = args.length > 2 ? Long.parseLong(args[2]) : 10;
+
+    var cacheCalls = new AtomicInteger();
+    var cache = AsyncRecordCache.of(backend(cacheCalls, delay), 64);
+    var start = System.nanoTime();
+    var cacheLatencies = run(threads, keys, (thread, key) -> cache.get(key).join());
+    report("cache", cacheCalls, cacheLatencies, System.nanoTime() - start);
+
+    var naiveCalls = new AtomicInteger();
+    var naiveBackend = backend(naiveCalls, delay);
+    var threadMaps = new HashMap<?, ?>[threads];
+    Arrays.setAll(threadMaps, __ -> new HashMap<Integer, Integer>());
+    start = System.nanoTime();
+    var naiveLatencies = run(threads, keys, (thread, key) -> {
+      @SuppressWarnings("unchecked")
+      var map = (HashMap<Integer, Integer>) threadMaps[thread];
+      return map.computeIfAbsent(key, k -> naiveBackend.apply(Set.of(k)).get(k));
+    });
+    report("per thread", naiveCalls, naiveLatencies, System.nanoTime() - start);
+  }
+}
@@ -0,0 +1,184 @@
+package com.github.forax.recordmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncRecordCacheTest {
+
+  @Test
+  public void get() {
+    var cache = AsyncRecordCache.<String, Integer>of(keys -> keys.stream().collect(toMap(k -> k, String::length)), 16);
+    assertAll(
+        () -> assertEquals(3, cache.get("foo").join()),
+        () -> assertEquals(6, cache.get("foobar").join()),
+        () -> assertEquals(3, cache.getIfPresent("foo")),
+        () -> assertEquals(2, cache.size())
+    );
+  }
+
+  @Test
+  public void getMissingValue() {
+    var cache = AsyncRecordCache.<String, Integer>of(keys -> Map.of(), 16);
+    assertAll(
+        () -> assertNull(cache.get("foo").join()),
+        () -> assertNull(cache.getIfPresent("foo")),
+        () -> assertEquals(0, cache.size())
+    );
+  }
+
+  @Test
+  public void getLoaderFailure() {
+    var counter = new AtomicInteger();
+    var cache = AsyncRecordCache.<String, Integer>of(keys -> {
+      if (counter.getAndIncrement() == 0) {
+        throw new IllegalStateException("backend down");
+      }
+      return keys.stream().collect(toMap(k -> k, String::length));
+    }, 16);
+    var exception = assertThrows(CompletionException.class, () -> cache.get("foo").join());
+    assertInstanceOf(IllegalStateException.class, exception.getCause());
+    assertEquals(3, cache.get("foo").join());  // the failure is not cached
+  }
+
+  @Test
+  public void getAllIsBatched() {
+    var tasks = new ArrayList<Runnable>();
+    var batches = new CopyOnWriteArrayList<Set<Integer>>();
+    var cache = new AsyncRecordCache<Integer, String>(keys -> {
+      batches.add(keys);
+      return keys.stream().collect(toMap(k -> k, k -> "" + k));
+    }, tasks::add, 1_000);
+
+    var future = cache.getAll(range(0, 100).boxed().toList());
+    assertEquals(1, tasks.size());
+    tasks.forEach(Runnable::run);
+
+    var result = future.join();
+    assertAll(
+        () -> assertEquals(1, batches.size()),
+        () -> assertEquals(100, batches.get(0).size()),
+        () -> assertEquals(100, result.size()),
+        () -> assertEquals("42", result.get(42))
+    );
+  }
+
+  @Test
+  public void getAllMaxBatchSize() {
+    var tasks = new ArrayList<Runnable>();
+    var batches = new CopyOnWriteArrayList<Set<Integer>>();
+    var cache = new AsyncRecordCache<Integer, Integer>(keys -> {
+      batches.add(keys);
+      return keys.stream().collect(toMap(k -> k, k -> k));
+    }, tasks::add, 10);
+
+    var future = cache.getAll(range(0, 95).boxed().toList());
+    tasks.forEach(Runnable::run);
+
+    assertEquals(95, future.join().size());
+    assertEquals(10, batches.size());
+    assertTrue(batches.stream().allMatch(batch -> batch.size() <= 10));
+  }
+
+  @Test
+  public void singleFlight() throws InterruptedException {
+    var loadCounts = new ConcurrentHashMap<Integer, AtomicInteger>();
+    var loaderCalls = new AtomicInteger();
+    Function<Set<Integer>, Map<Integer, Integer>> backend = keys -> {
+      loaderCalls.incrementAndGet();
+      keys.forEach(key -> loadCounts.computeIfAbsent(key, __ -> new AtomicInteger()).incrementAndGet());
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      return keys.stream().collect(toMap(k -> k, k -> k * 2));
+    };
+    var cache = AsyncRecordCache.of(backend, 64);
+
+    var results = new ConcurrentHashMap<Integer, Integer>();
+    try(var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for(var i = 0; i < 10_000; i++) {
+        var key = i % 10;
+        executor.submit(() -> results.merge(key, cache.get(key).join(), (v1, v2) -> {
+          assertEquals(v1, v2);
+          return v1;
+        }));
+      }
+    }
+
+    // a naive per-thread loading would call the backend 10_000 times
+    assertAll(
+        () -> assertEquals(10, results.size()),
+        () -> assertEquals(14, results.get(7)),
+        () -> assertTrue(loadCounts.values().stream().allMatch(count -> count.get() == 1)),
+        () -> assertTrue(loaderCalls.get() <= 10)
+    );
+  }
+
+  @Test
+  public void executorRejects() {
+    var rejected = new AtomicInteger();
+    var cache = new AsyncRecordCache<String, Integer>(keys -> keys.stream().collect(toMap(k -> k, String::length)),
+        command -> {
+          if (rejected.getAndIncrement() == 0) {
+            throw new RejectedExecutionException();
+          }
+          command.run();
+        }, 16);
+    var exception = assertThrows(CompletionException.class, () -> cache.get("foo").join());
+    assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+    // the failure is not cached and a new drain is scheduled
+    assertEquals(3, cache.get("foo").join());
+  }
+
+  @Test
+  public void hitsWhileLoading() {
+    var cache = AsyncRecordCache.<Integer, Integer>of(keys -> keys.stream().collect(toMap(k -> k, k -> -k)), 64);
+    var errors = new AtomicInteger();
+    try(var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for(var i = 0; i < 10_000; i++) {
+        var key = i % 1_000;
+        executor.submit(() -> {
+          if (cache.get(key).join() != -key || cache.getIfPresent(key) != -key) {
+            errors.incrementAndGet();
+          }
+        });
+      }
+    }
+    assertAll(
+        () -> assertEquals(0, errors.get()),
+        () -> assertEquals(1_000, cache.size()),
+        () -> range(0, 1_000).forEach(i -> assertEquals(-i, cache.getIfPresent(i)))
+    );
+  }
+
+  @Test
+  public void getNull() {
+    var cache = AsyncRecordCache.<String, Integer>of(keys -> Map.of(), 16);
+    assertAll(
+        () -> assertThrows(NullPointerException.class, () -> cache.get(null)),
+        () -> assertThrows(NullPointerException.class, () -> cache.getAll(null)),
+        () -> assertThrows(NullPointerException.class, () -> cache.getAll(List.of((String) null)))
+    );
+  }
+
+  @Test
+  public void invalidMaxBatchSize() {
+    assertThrows(IllegalArgumentException.class, () -> AsyncRecordCache.of(keys -> Map.of(), 0));
+  }
+}
@@ -0,0 +1,160 @@
+package com.github.forax.recordmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryKeyRecordMapTest {
+  private static byte[] bytes(String text) {
+    return text.getBytes(UTF_8);
+  }
+
+  @Test
+  public void putAndGet() {
+    var map = new BinaryKeyRecordMap<String>();
+    assertNull(map.put(bytes("foo"), "1"));
+    assertNull(map.put(bytes("bar"), "2"));
+    assertEquals("1", map.put(bytes("foo"), "3"));
+    assertAll(
+        () -> assertEquals(2, map.size()),
+        () -> assertEquals("3", map.get(bytes("foo"))),
+        () -> assertEquals("2", map.get(bytes("bar"))),
+        () -> assertNull(map.get(bytes("baz"))),
+        () -> assertTrue(map.containsKey(bytes("bar"))),
+        () -> assertFalse(map.containsKey(bytes("ba")))
+    );
+  }
+
+  @Test
+  public void slices() {
+    var map = new BinaryKeyRecordMap<Integer>();
+    var packet = bytes("GET /index.html HTTP/1.1");
+    map.put(packet, 4, 11, 42);
+    assertAll(
+        () -> assertEquals(42, map.get(bytes("/index.html"))),
+        () -> assertEquals(42, map.get(bytes("xx/index.htmlxx"), 2, 11)),
+        () -> assertEquals(42, map.get(ByteBuffer.wrap(packet), 4, 11)),
+        () -> assertNull(map.get(ByteBuffer.wrap(packet), 4, 10)),
+        () -> assertArrayEquals(bytes("/index.html"), map.keyAt(0))
+    );
+  }
+
+  @Test
+  public void heapAndDirectBuffers() {
+    var map = new BinaryKeyRecordMap<Integer>();
+    var random = new Random(0);
+    var keys = new ArrayList<byte[]>();
+    for (var i = 0; i < 1_000; i++) {
+      var key = new byte[random.nextInt(40)];
+      random.nextBytes(key);
+      if (map.put(key, i) == null) {
+        keys.add(key);
+      }
+    }
+    for (var order : List.of(ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN)) {
+      var heap = ByteBuffer.allocate(64).order(order);
+      var direct = ByteBuffer.allocateDirect(64).order(order);
+      var readOnly = ByteBuffer.allocate(64).order(order);
+      for (var key : keys) {
+        var expected = map.get(key);
+        heap.put(3, key);
+        direct.put(5, key);
+        readOnly.put(7, key);
+        assertAll(
+            () -> assertEquals(expected, map.get(heap, 3, key.length)),
+            () -> assertEquals(expected, map.get(direct, 5, key.length)),
+            () -> assertEquals(expected, map.get(readOnly.asReadOnlyBuffer(), 7, key.length))
+        );
+      }
+    }
+  }
+
+  @Test
+  public void putFromDirectBuffer() {
+    var map = new BinaryKeyRecordMap<Integer>();
+    var buffer = ByteBuffer.allocateDirect(1_024);
+    for (var i = 0; i < 100; i++) {
+      buffer.put(i * 10, bytes("key%06d".formatted(i)));
+    }
+    for (var i = 0; i < 100; i++) {
+      assertNull(map.put(buffer, i * 10, 9, i));
+    }
+    assertEquals(0, buffer.position());
+    for (var i = 0; i < 100; i++) {
+      assertEquals(i, map.get(bytes("key%06d".formatted(i))));
+      assertEquals(i, map.indexOf(buffer, i * 10, 9));
+    }
+    assertEquals(99, map.put(buffer, 990, 9, -1));
+    assertEquals(100, map.size());
+  }
+
+  @Test
+  public void putALot() {
+    var map = new BinaryKeyRecordMap<Integer>();
+    for (var i = 0; i < 100_000; i++) {
+      map.put(bytes("" + i), i);
+    }
+    assertEquals(100_000, map.size());
+    for (var i = 0; i < 100_000; i++) {
+      assertEquals(i, map.get(bytes("" + i)));
+      assertEquals(i, map.valueAt(i));
+    }
+  }
+
+  @Test
+  public void emptyKey() {
+    var map = new BinaryKeyRecordMap<String>(0);
+    map.put(new byte[0], "empty");
+    assertAll(
+        () -> assertEquals("empty", map.get(new byte[0])),
+        () -> assertEquals("empty", map.get(ByteBuffer.allocateDirect(4), 2, 0)),
+        () -> assertEquals(0, map.keyBufferAt(0).remaining())
+    );
+  }
+
+  @Test
+  public void keyBufferAt() {
+    var map = new BinaryKeyRecordMap<String>();
+    map.put(bytes("foo"), "1");
+    map.put(bytes("bar"), "2");
+    var buffer = map.keyBufferAt(1);
+    assertAll(
+        () -> assertEquals(ByteBuffer.wrap(bytes("bar")), buffer),
+        () -> assertTrue(buffer.isReadOnly()),
+        () -> assertEquals("2", map.get(buffer, 0, buffer.limit()))
+    );
+  }
+
+  @Test
+  public void forEachAndToString() {
+    var map = new BinaryKeyRecordMap<Integer>();
+    map.put(new byte[] { 1, 2 }, 12);
+    map.put(new byte[] { (byte) 0xff }, 255);
+    var list = new ArrayList<String>();
+    map.forEach((key, value) -> list.add(key.length + ":" + value));
+    assertAll(
+        () -> assertEquals(List.of("2:12", "1:255"), list),
+        () -> assertEquals("{0102=12, ff=255}", map.toString())
+    );
+  }
+
+  @Test
+  public void invalidArguments() {
+    var map = new BinaryKeyRecordMap<String>();
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> new BinaryKeyRecordMap<String>(-1)),
+        () -> assertThrows(NullPointerException.class, () -> map.put(bytes("foo"), null)),
+        () -> assertThrows(NullPointerException.class, () -> map.get((byte[]) null)),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> map.get(bytes("foo"), 2, 2)),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> map.get(ByteBuffer.allocate(4).limit(2), 0, 3)),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> map.keyAt(0))
+    );
+  }
+}
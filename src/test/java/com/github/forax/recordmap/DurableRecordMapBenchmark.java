@@ -0,0 +1,55 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.DurableRecordMap.Codec;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+/**
+ * Measures the write throughput of a {@link DurableRecordMap} for several sync batch sizes.
+ *
+ * Usage: {@code DurableRecordMapBenchmark [directory] [batchSize...]}, by default the batch sizes
+ * are 1, 16, 128 and 1024, the directory should be on the disk being measured.
+ */
+public class DurableRecordMapBenchmark {
+  private static final int KEY_COUNT = 10_000;
+
+  private static double operationsPerSecond(Path directory, int syncBatchSize, int operations) throws IOException {
+    try (var map = DurableRecordMap.open(directory, Codec.ofInteger(), Codec.ofLong(), syncBatchSize)) {
+      var start = System.nanoTime();
+      for (var i = 0; i < operations; i++) {
+        map.merge(i % KEY_COUNT, (long) i, Long::sum);
+      }
+      map.sync();
+      var time = System.nanoTime() - start;
+      return operations * 1e9 / time;
+    } finally {
+      try (var stream = Files.walk(directory)) {
+        for (var path : stream.sorted(Comparator.reverseOrder()).toList()) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    var directory = args.length > 0 ? Path.of(args[0]) : Files.createTempDirectory("durable-record-map");
+    var batchSizes = new int[] { 1, 16, 128, 1_024 };
+    if (args.length > 1) {
+      batchSizes = new int[args.length - 1];
+      for (var i = 1; i < args.length; i++) {
+        batchSizes[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+    System.out.println("batch size, operations/s");
+    for (var syncBatchSize : batchSizes) {
+      // fewer operations when each one is forced to the disk
+      var operations = Math.min(1_000_000, 2_000 * syncBatchSize);
+      operationsPerSecond(directory.resolve("warmup"), syncBatchSize, operations);
+      var throughput = operationsPerSecond(directory.resolve("batch" + syncBatchSize), syncBatchSize, operations);
+      System.out.printf("%d, %.0f%n", syncBatchSize, throughput);
+    }
+  }
+}
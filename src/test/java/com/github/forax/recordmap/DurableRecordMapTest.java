@@ -0,0 +1,465 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.DurableRecordMap.Codec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DurableRecordMapTest {
+  private static DurableRecordMap<String, Integer> open(Path directory, int syncBatchSize) throws IOException {
+    return DurableRecordMap.open(directory, Codec.ofString(), Codec.ofInteger(), syncBatchSize);
+  }
+
+  private static Map<String, Integer> content(DurableRecordMap<String, Integer> map) {
+    var content = new HashMap<String, Integer>();
+    map.forEach(content::put);
+    return content;
+  }
+
+  private static List<String> logs(Path directory) throws IOException {
+    try (var stream = Files.list(directory)) {
+      return stream.map(path -> path.getFileName().toString()).filter(name -> name.startsWith("log-")).sorted().toList();
+    }
+  }
+
+  @Test
+  public void putAndRecover(@TempDir Path directory) throws IOException {
+    try (var map = open(directory, 1)) {
+      assertNull(map.put("foo", 1));
+      assertNull(map.put("bar", 2));
+      assertEquals(1, map.put("foo", 3));
+    }
+    try (var map = open(directory, 1)) {
+      assertAll(
+          () -> assertEquals(2, map.size()),
+          () -> assertEquals(3, map.get("foo")),
+          () -> assertEquals(2, map.get("bar")),
+          () -> assertTrue(map.containsKey("bar")),
+          () -> assertFalse(map.containsKey("baz"))
+      );
+    }
+  }
+
+  @Test
+  public void mergeReplaceCompute(@TempDir Path directory) throws IOException {
+    try (var map = open(directory, 4)) {
+      assertEquals(1, map.merge("foo", 1, Integer::sum));
+      assertEquals(3, map.merge("foo", 2, Integer::sum));
+      assertNull(map.replace("bar", 10));
+      assertEquals(3, map.replace("foo", 4));
+      assertEquals(40, map.compute("foo", (key, value) -> value * 10));
+      assertEquals(7, map.compute("baz", (key, value) -> value == null ? 7 : value));
+    }
+    try (var map = open(directory, 4)) {
+      assertEquals(Map.of("foo", 40, "baz", 7), content(map));
+    }
+  }
+
+  @Test
+  public void recoverAtSeveralBatchSizes(@TempDir Path directory) throws IOException {
+    for (var syncBatchSize : new int[] { 1, 16, 1_024 }) {
+      var subDirectory = directory.resolve("batch" + syncBatchSize);
+      var random = new Random(syncBatchSize);
+      var expected = new HashMap<String, Integer>();
+      try (var map = open(subDirectory, syncBatchSize)) {
+        for (var i = 0; i < 5_000; i++) {
+          var key = "key" + random.nextInt(1_000);
+          expected.merge(key, i, Integer::sum);
+          map.merge(key, i, Integer::sum);
+        }
+      }
+      try (var map = open(subDirectory, syncBatchSize)) {
+        assertEquals(expected, content(map), "syncBatchSize " + syncBatchSize);
+      }
+    }
+  }
+
+  @Test
+  public void groupCommit(@TempDir Path directory) throws IOException {
+    var copy = directory.resolve("copy");
+    try (var map = open(directory.resolve("map"), 16)) {
+      for (var i = 0; i < 20; i++) {
+        map.put("key" + i, i);
+      }
+      // only the first batch is on the disk
+      Files.createDirectories(copy);
+      Files.copy(directory.resolve("map/log-0"), copy.resolve("log-0"));
+      try (var recovered = open(copy, 1)) {
+        assertEquals(16, recovered.size());
+      }
+      map.sync();
+      Files.copy(directory.resolve("map/log-0"), copy.resolve("log-0"), StandardCopyOption.REPLACE_EXISTING);
+      try (var recovered = open(copy, 1)) {
+        assertEquals(20, recovered.size());
+      }
+    }
+  }
+
+  @Test
+  public void tornRecord(@TempDir Path directory) throws IOException {
+    try (var map = open(directory, 1)) {
+      map.put("foo", 1);
+      map.put("bar", 2);
+    }
+    var log = directory.resolve("log-0");
+    var size = Files.size(log);
+    Files.write(log, new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+    try (var map = open(directory, 1)) {
+      assertEquals(Map.of("foo", 1, "bar", 2), content(map));
+      assertEquals(size, Files.size(log));
+      map.put("baz", 3);
+    }
+    try (var map = open(directory, 1)) {
+      assertEquals(Map.of("foo", 1, "bar", 2, "baz", 3), content(map));
+    }
+  }
+
+  @Test
+  public void corruptedRecord(@TempDir Path directory) throws IOException {
+    try (var map = open(directory, 1)) {
+      map.put("foo", 1);
+      map.put("bar", 2);
+    }
+    var log = directory.resolve("log-0");
+    var bytes = Files.readAllBytes(log);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(log, bytes);
+    try (var map = open(directory, 1)) {
+      assertEquals(Map.of("foo", 1), content(map));
+    }
+  }
+
+  @Test
+  public void compact(@TempDir Path directory) throws IOException {
+    try (var map = open(directory, 8)) {
+      for (var i = 0; i < 1_000; i++) {
+        map.put("key" + (i % 10), i);
+      }
+      var logSize = Files.size(directory.resolve("log-0"));
+      map.compact().join();
+      assertAll(
+          () -> assertEquals(List.of("log-1"), logs(directory)),
+          () -> assertTrue(Files.size(directory.resolve("snapshot")) < logSize)
+      );
+      map.put("key0", -1);
+      map.put("foo", 42);
+    }
+    try (var map = open(directory, 8)) {
+      var expected = new HashMap<String, Integer>();
+      for (var i = 0; i < 10; i++) {
+        expected.put("key" + i, 990 + i);
+      }
+      expected.put("key0", -1);
+      expected.put("foo", 42);
+      assertEquals(expected, content(map));
+    }
+  }
+
+  @Test
+  public void updatesDuringCompaction(@TempDir Path directory) throws IOException {
+    var expected = new HashMap<String, Integer>();
+    try (var map = open(directory, 32)) {
+      for (var round = 0; round < 10; round++) {
+        for (var i = 0; i < 500; i++) {
+          var key = "key" + (i * 7 + round) % 300;
+          expected.merge(key, i, Integer::sum);
+          map.merge(key, i, Integer::sum);
+        }
+        map.compact();
+      }
+    }
+    try (var map = open(directory, 32)) {
+      assertEquals(expected, content(map));
+    }
+  }
+
+  @Test
+  public void crashBeforeOldLogDeleted(@TempDir Path directory) throws IOException {
+    try (var map = open(directory, 1)) {
+      map.put("foo", 1);
+      map.put("bar", 2);
+      var oldLog = Files.readAllBytes(directory.resolve("log-0"));
+      map.compact().join();
+      map.put("foo", 3);
+      // simulate a crash between the snapshot and the deletion of the old log
+      Files.write(directory.resolve("log-0"), oldLog);
+    }
+    try (var map = open(directory, 1)) {
+      assertEquals(Map.of("foo", 3, "bar", 2), content(map));
+      assertEquals(List.of("log-1"), logs(directory));
+    }
+  }
+
+  @Test
+  public void corruptedSnapshot(@TempDir Path directory) throws IOException {
+    try (var map = open(directory, 1)) {
+      map.put("foo", 1);
+      map.compact().join();
+    }
+    var snapshot = directory.resolve("snapshot");
+    var bytes = Files.readAllBytes(snapshot);
+    bytes[bytes.length - 9] ^= 1;
+    Files.write(snapshot, bytes);
+    assertThrows(IOException.class, () -> open(directory, 1));
+  }
+
+  @Test
+  public void automaticCompaction(@TempDir Path directory) throws IOException {
+    try (var map = DurableRecordMap.open(directory, Codec.ofString(), Codec.ofInteger(), 1, 4_096)) {
+      for (var i = 0; i < 10_000; i++) {
+        map.put("key" + (i % 100), i);
+      }
+    }
+    assertAll(
+        () -> assertTrue(Files.exists(directory.resolve("snapshot"))),
+        () -> assertTrue(logs(directory).size() <= 2, "" + logs(directory))
+    );
+    try (var map = open(directory, 1)) {
+      var expected = new HashMap<String, Integer>();
+      for (var i = 0; i < 100; i++) {
+        expected.put("key" + i, 9_900 + i);
+      }
+      assertEquals(expected, content(map));
+    }
+  }
+
+  @Test
+  public void recoverUpdateHeavyLog(@TempDir Path directory) throws IOException {
+    try (var map = open(directory, 1_024)) {
+      for (var i = 0; i < 100_000; i++) {
+        map.put("key" + (i % 3), i);
+      }
+    }
+    try (var map = open(directory, 1)) {
+      assertEquals(Map.of("key0", 99_999, "key1", 99_997, "key2", 99_998), content(map));
+    }
+  }
+
+  // a channel that writes half of the bytes then fails, while failWrites is true
+  private static final class FailingChannel extends FileChannel {
+    private final FileChannel channel;
+    private boolean failWrites;
+    private boolean failTruncates;
+
+    private FailingChannel(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      if (failWrites) {
+        var half = src.duplicate();
+        half.limit(half.position() + half.remaining() / 2);
+        channel.write(half);
+        throw new IOException("disk full");
+      }
+      return channel.write(src);
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+      if (failTruncates) {
+        throw new IOException("I/O error");
+      }
+      channel.truncate(size);
+      return this;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      return channel.read(dst);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+      return channel.read(dsts, offset, length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long position() throws IOException {
+      return channel.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+      channel.position(newPosition);
+      return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+      return channel.size();
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+      channel.force(metaData);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+      return channel.read(dst, position);
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+      channel.close();
+    }
+  }
+
+  private static DurableRecordMap<String, Integer> openFailing(Path directory, List<FailingChannel> channels)
+      throws IOException {
+    return DurableRecordMap.open(directory, Codec.ofString(), Codec.ofInteger(), 1, Long.MAX_VALUE, path -> {
+      var channel = new FailingChannel(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+      channels.add(channel);
+      return channel;
+    });
+  }
+
+  @Test
+  public void writeErrorIsRepaired(@TempDir Path directory) throws IOException {
+    var channels = new ArrayList<FailingChannel>();
+    try (var map = openFailing(directory, channels)) {
+      map.put("foo", 1);
+      channels.get(0).failWrites = true;
+      assertThrows(UncheckedIOException.class, () -> map.put("bar", 2));
+      // the update is pending, it is written with the next batch
+      assertEquals(2, map.get("bar"));
+      channels.get(0).failWrites = false;
+      map.put("baz", 3);
+    }
+    try (var map = open(directory, 1)) {
+      assertEquals(Map.of("foo", 1, "bar", 2, "baz", 3), content(map));
+    }
+  }
+
+  @Test
+  public void writeErrorNotRepaired(@TempDir Path directory) throws IOException {
+    var channels = new ArrayList<FailingChannel>();
+    try (var map = openFailing(directory, channels)) {
+      map.put("foo", 1);
+      channels.get(0).failWrites = true;
+      channels.get(0).failTruncates = true;
+      assertThrows(UncheckedIOException.class, () -> map.put("bar", 2));
+      assertAll(
+          () -> assertThrows(IllegalStateException.class, () -> map.put("baz", 3)),
+          () -> assertThrows(IllegalStateException.class, map::sync),
+          () -> assertEquals(1, map.get("foo"))
+      );
+    }
+    // the partial record is the last record of the log, it is discarded
+    try (var map = open(directory, 1)) {
+      assertEquals(Map.of("foo", 1), content(map));
+      map.put("whizz", 4);
+    }
+    try (var map = open(directory, 1)) {
+      assertEquals(Map.of("foo", 1, "whizz", 4), content(map));
+    }
+  }
+
+  @Test
+  public void codecError(@TempDir Path directory) throws IOException {
+    var failingCodec = new Codec<Integer>() {
+      @Override
+      public void write(DataOutput output, Integer value) throws IOException {
+        if (value < 0) {
+          throw new IOException("negative");
+        }
+        output.writeInt(value);
+      }
+
+      @Override
+      public Integer read(DataInput input) throws IOException {
+        return input.readInt();
+      }
+    };
+    try (var map = DurableRecordMap.open(directory, Codec.ofString(), failingCodec, 4)) {
+      map.put("foo", 1);
+      assertThrows(UncheckedIOException.class, () -> map.put("foo", -1));
+      assertEquals(1, map.get("foo"));
+      map.put("bar", 2);
+    }
+    try (var map = open(directory, 1)) {
+      assertEquals(Map.of("foo", 1, "bar", 2), content(map));
+    }
+  }
+
+  @Test
+  public void closed(@TempDir Path directory) throws IOException {
+    var map = open(directory, 1);
+    map.close();
+    map.close();
+    assertThrows(IllegalStateException.class, () -> map.put("foo", 1));
+  }
+
+  @Test
+  public void invalidArguments(@TempDir Path directory) {
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> open(directory, 0)),
+        () -> assertThrows(IllegalArgumentException.class,
+            () -> DurableRecordMap.open(directory, Codec.ofString(), Codec.ofInteger(), 1, 0)),
+        () -> assertThrows(NullPointerException.class, () -> DurableRecordMap.open(directory, null, Codec.ofInteger(), 1)),
+        () -> assertThrows(NullPointerException.class, () -> {
+          try (var map = open(directory, 1)) {
+            map.put(null, 1);
+          }
+        })
+    );
+  }
+}
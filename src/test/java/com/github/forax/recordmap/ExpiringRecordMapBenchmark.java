@@ -0,0 +1,68 @@
+package com.github.forax.recordmap;
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * Measures the throughput of an {@link ExpiringRecordMap} with 10M live entries and
+ * its expiry latency, the pauses of {@link ExpiringRecordMap#cleanUp()} and the delay
+ * between the expiry of the entries and their removal.
+ *
+ * The time is simulated, so the results do not depend on the speed of the machine,
+ * each operation advances the clock by 100 ns.
+ *
+ * Usage: {@code ExpiringRecordMapBenchmark [liveEntries]}, by default 10_000_000,
+ * needs a heap of about 2 GB.
+ */
+public class ExpiringRecordMapBenchmark {
+  private static final long STEP = 100;  // ns
+
+  private static final class Clock {
+    private long time;
+  }
+
+  public static void main(String[] args) {
+    var liveEntries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    var clock = new Clock();
+    // the TTL is chosen so that about liveEntries entries are alive
+    var ttl = Duration.ofNanos(liveEntries * STEP);
+    var map = new ExpiringRecordMap<Integer, Integer>(ttl, () -> clock.time);
+    var keys = new Integer[3 * liveEntries];
+    for (var i = 0; i < keys.length; i++) {
+      keys[i] = i;
+    }
+
+    // fill, then replace the entries while the first ones expire
+    var random = new Random(0);
+    var hits = 0;
+    var start = System.nanoTime();
+    for (var i = 0; i < keys.length; i++) {
+      var key = keys[i];
+      map.put(key, key);
+      if (map.get(keys[random.nextInt(i + 1)]) != null) {
+        hits++;
+      }
+      clock.time += STEP;
+    }
+    var time = System.nanoTime() - start;
+    System.out.printf("put+get: %.1f ns/op, %d entries, %d hits%n", time / (double) keys.length, map.size(), hits);
+
+    // expiry latency, stop the updates and call cleanUp() every millisecond
+    var maxPause = 0L;
+    var totalPause = 0L;
+    var cleanUps = 0;
+    var lastExpiry = clock.time - STEP + ttl.toNanos();
+    while (map.size() != 0) {
+      clock.time += 1_000_000;
+      var pauseStart = System.nanoTime();
+      map.cleanUp();
+      var pause = System.nanoTime() - pauseStart;
+      maxPause = Math.max(maxPause, pause);
+      totalPause += pause;
+      cleanUps++;
+    }
+    System.out.printf("cleanUp: %d calls, max pause %.2f ms, average pause %.3f ms%n",
+        cleanUps, maxPause / 1e6, totalPause / 1e6 / cleanUps);
+    System.out.printf("last entry removed %.2f ms after its expiry%n", (clock.time - lastExpiry) / 1e6);
+  }
+}
@@ -0,0 +1,227 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiringRecordMapTest {
+  private static final class Clock implements LongSupplier {
+    private long time;
+
+    private Clock(long time) {
+      this.time = time;
+    }
+
+    private void advance(Duration duration) {
+      time += duration.toNanos();
+    }
+
+    @Override
+    public long getAsLong() {
+      return time;
+    }
+  }
+
+  @Test
+  public void putAndGet() {
+    var clock = new Clock(0);
+    var map = new ExpiringRecordMap<String, Integer>(Duration.ofSeconds(10), clock);
+    assertNull(map.put("foo", 1));
+    assertNull(map.put("bar", 2));
+    assertEquals(1, map.put("foo", 3));
+    assertAll(
+        () -> assertEquals(2, map.size()),
+        () -> assertEquals(3, map.get("foo")),
+        () -> assertEquals(2, map.get("bar")),
+        () -> assertNull(map.get("baz")),
+        () -> assertEquals(-1, map.getOrDefault("baz", -1)),
+        () -> assertTrue(map.containsKey("foo")),
+        () -> assertFalse(map.containsKey("baz"))
+    );
+  }
+
+  @Test
+  public void expiredEntriesAreInvisible() {
+    var clock = new Clock(0);
+    var map = new ExpiringRecordMap<String, Integer>(Duration.ofSeconds(10), clock);
+    map.put("foo", 1);
+    clock.advance(Duration.ofSeconds(5));
+    map.put("bar", 2);
+    clock.advance(Duration.ofSeconds(5));
+    assertAll(
+        () -> assertNull(map.get("foo")),
+        () -> assertFalse(map.containsKey("foo")),
+        () -> assertEquals(2, map.get("bar")),
+        () -> assertEquals("{bar=2}", map.toString()),
+        () -> assertEquals(2, map.size())  // not removed yet
+    );
+    map.cleanUp();
+    assertEquals(1, map.size());
+    clock.advance(Duration.ofSeconds(5));
+    map.cleanUp();
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void evictedByUpdates() {
+    var clock = new Clock(0);
+    var map = new ExpiringRecordMap<Integer, Integer>(Duration.ofMillis(100), clock);
+    for (var i = 0; i < 10_000; i++) {
+      map.put(i, i);
+      clock.advance(Duration.ofMillis(1));
+    }
+    // only the entries of the last 100 ms, give or take one tick
+    assertTrue(map.size() <= 102, "size " + map.size());
+    for (var i = 9_901; i < 10_000; i++) {
+      assertEquals(i, map.get(i));
+    }
+  }
+
+  @Test
+  public void perEntryTimeToLive() {
+    var clock = new Clock(0);
+    var map = new ExpiringRecordMap<String, String>(Duration.ofMinutes(1), clock);
+    map.put("short", "1", Duration.ofMillis(10));
+    map.put("default", "2");
+    map.put("long", "3", Duration.ofDays(3));
+    assertEquals(Duration.ofMillis(10), map.timeToLive("short"));
+    clock.advance(Duration.ofSeconds(1));
+    map.cleanUp();
+    assertEquals(List.of("default", "long"), keys(map));
+    clock.advance(Duration.ofMinutes(1));
+    map.cleanUp();
+    assertEquals(List.of("long"), keys(map));
+    for (var hour = 0; hour < 71; hour++) {
+      clock.advance(Duration.ofHours(1));
+      map.cleanUp();
+      assertEquals(1, map.size(), "hour " + hour);
+    }
+    clock.advance(Duration.ofHours(1));
+    map.cleanUp();
+    assertAll(
+        () -> assertEquals(0, map.size()),
+        () -> assertEquals(Duration.ZERO, map.timeToLive("long"))
+    );
+  }
+
+  private static <K> List<K> keys(ExpiringRecordMap<K, ?> map) {
+    var keys = new ArrayList<K>();
+    for (var entry : map) {
+      keys.add(entry.key());
+    }
+    return keys.stream().sorted().toList();
+  }
+
+  @Test
+  public void putRefreshesTimeToLive() {
+    var clock = new Clock(0);
+    var map = new ExpiringRecordMap<String, Integer>(Duration.ofSeconds(10), clock);
+    map.put("foo", 1);
+    clock.advance(Duration.ofSeconds(8));
+    assertEquals(1, map.put("foo", 2));
+    clock.advance(Duration.ofSeconds(8));
+    map.cleanUp();
+    assertEquals(2, map.get("foo"));
+    clock.advance(Duration.ofSeconds(2));
+    assertNull(map.put("foo", 3));  // the previous entry is expired
+  }
+
+  @Test
+  public void putIfAbsentAndComputeIfAbsent() {
+    var clock = new Clock(0);
+    var map = new ExpiringRecordMap<String, Integer>(Duration.ofSeconds(10), clock);
+    assertNull(map.putIfAbsent("foo", 1));
+    assertEquals(1, map.putIfAbsent("foo", 2));
+    assertEquals(3, map.computeIfAbsent("bar", String::length));
+    assertEquals(3, map.computeIfAbsent("bar", key -> 42));
+    clock.advance(Duration.ofSeconds(10));
+    assertAll(
+        () -> assertNull(map.putIfAbsent("foo", 4)),
+        () -> assertEquals(4, map.get("foo")),
+        () -> assertEquals(42, map.computeIfAbsent("bar", key -> 42))
+    );
+  }
+
+  @Test
+  public void remove() {
+    var clock = new Clock(0);
+    var map = new ExpiringRecordMap<Integer, Integer>(Duration.ofSeconds(10), clock);
+    range(0, 1_000).forEach(i -> map.put(i, i));
+    for (var i = 0; i < 1_000; i += 2) {
+      assertEquals(i, map.remove(i));
+    }
+    assertNull(map.remove(0));
+    assertEquals(500, map.size());
+    for (var i = 0; i < 1_000; i++) {
+      assertEquals(i % 2 == 0 ? null : i, map.get(i));
+    }
+    clock.advance(Duration.ofSeconds(10));
+    assertNull(map.remove(1));
+    map.cleanUp();
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void negativeTicker() {
+    var clock = new Clock(-1_000_000_000_000L);
+    var map = new ExpiringRecordMap<String, Integer>(Duration.ofSeconds(1), clock);
+    map.put("foo", 1);
+    clock.advance(Duration.ofMillis(999));
+    assertEquals(1, map.get("foo"));
+    clock.advance(Duration.ofMillis(1));
+    map.cleanUp();
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void randomizedAgainstModel() {
+    var random = new Random(0);
+    var clock = new Clock(random.nextLong());
+    var map = new ExpiringRecordMap<Integer, Integer>(Duration.ofMillis(500), clock);
+    var model = new HashMap<Integer, RecordEntry<Integer, Long>>();  // key -> (value, expiry)
+    for (var i = 0; i < 200_000; i++) {
+      var key = random.nextInt(2_000);
+      switch (random.nextInt(10)) {
+        case 0 -> clock.advance(Duration.ofMillis(random.nextInt(50)));
+        case 1 -> {
+          var ttl = Duration.ofMillis(1 + random.nextInt(random.nextBoolean() ? 100 : 100_000));
+          map.put(key, i, ttl);
+          model.put(key, RecordEntry.of(i, clock.time + ttl.toNanos()));
+        }
+        case 2 -> {
+          var expected = model.remove(key);
+          assertEquals(expected == null || expected.value() - clock.time <= 0 ? null : expected.key(), map.remove(key));
+        }
+        case 3 -> {
+          map.cleanUp();
+          model.values().removeIf(entry -> entry.value() - clock.time <= 0);
+          assertEquals(model.size(), map.size());
+        }
+        default -> {
+          var expected = model.get(key);
+          assertEquals(expected == null || expected.value() - clock.time <= 0 ? null : expected.key(), map.get(key));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void invalidArguments() {
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> new ExpiringRecordMap<String, String>(Duration.ZERO)),
+        () -> assertThrows(IllegalArgumentException.class, () -> new ExpiringRecordMap<String, String>(Duration.ofSeconds(-1))),
+        () -> assertThrows(NullPointerException.class, () -> new ExpiringRecordMap<String, String>(null)),
+        () -> assertThrows(NullPointerException.class, () -> new ExpiringRecordMap<String, String>(Duration.ofSeconds(1)).put(null, "foo")),
+        () -> assertThrows(NullPointerException.class, () -> new ExpiringRecordMap<String, String>(Duration.ofSeconds(1)).get(null))
+    );
+  }
+}
@@ -0,0 +1,250 @@
+package com.github.forax.recordmap;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the memory footprint and the GC activity of {@link RecordMap}, {@link HashMap}
+ * and the other maps of the project when they are built with Integer keys.
+ *
+ * Each measurement runs in its own JVM, started with the same JVM options as this one,
+ * and reports the build throughput, the retained heap per entry, the peak live heap during the build,
+ * the number of GCs, the total GC time and the longest GC pause. The results are written as CSV.
+ *
+ * The peak live heap is the largest heap occupancy after a GC during the build, so it includes
+ * the old and the new arrays that exist together during a resize. It is an upper bound,
+ * the old generation may still contain arrays of previous resizes after a young GC.
+ * The child JVM is started with a small young generation (unless one is specified)
+ * so several GCs happen during the build.
+ *
+ * Usage: {@code FootprintBenchmark sizes output.csv [variants]}, the sizes and the variants are separated by commas,
+ * the variants are {@link #VARIANTS}. The Maven profile {@code footprint} runs this benchmark
+ * <pre>
+ *   mvn -Pfootprint -DskipTests -Dfootprint.sizes=1000000,10000000 -Dfootprint.heap=8g verify
+ * </pre>
+ * A map with 1B entries needs a heap of about 64 GB, the maps that can not store that much entries
+ * (all except {@code sharded}) are skipped.
+ */
+public class FootprintBenchmark {
+  private interface Builder {
+    Object build(int size);
+  }
+
+  private record Variant(String name, long maxSize, Builder builder) {}
+
+  private static final List<Variant> VARIANTS = List.of(
+      new Variant("recordmap", 1 << 29, size -> fill(new RecordMap<Integer, Integer>(), size, Map::put)),
+      new Variant("recordmap-presized", 1 << 29, size -> fill(new RecordMap<Integer, Integer>(size), size, Map::put)),
+      new Variant("integer-key-recordmap", 1 << 29, size -> fill(RecordMap.ofKeyType(Integer.class), size, Map::put)),
+      new Variant("hashmap", 1 << 30, size -> fill(new HashMap<Integer, Integer>(), size, Map::put)),
+      new Variant("sharded", Integer.MAX_VALUE, size -> fill(new ShardedRecordMap<Integer, Integer>(), size, ShardedRecordMap::put)),
+      new Variant("expiring", 1 << 29, size -> fill(new ExpiringRecordMap<Integer, Integer>(Duration.ofHours(1)), size, ExpiringRecordMap::put)),
+      new Variant("binary-key", 1 << 29, size -> {
+        var map = new BinaryKeyRecordMap<Integer>();
+        var buffer = ByteBuffer.allocate(4);
+        for (var i = 0; i < size; i++) {
+          buffer.putInt(0, i);
+          map.put(buffer, 0, 4, i);
+        }
+        return map;
+      })
+  );
+
+  private interface Put<M> {
+    void put(M map, Integer key, Integer value);
+  }
+
+  private static <M> M fill(M map, int size, Put<? super M> put) {
+    for (var i = 0; i < size; i++) {
+      var key = (Integer) i;
+      put.put(map, key, key);
+    }
+    return map;
+  }
+
+  private static final String HEADER =
+      "version,variant,size,build_ms,entries_per_s,retained_bytes,bytes_per_entry,peak_live_heap_bytes,gc_count,gc_time_ms,max_gc_pause_ms,java_version,gc";
+
+  private static long usedHeap() {
+    // several GCs, so the objects with finalizers or cleaners are also collected
+    for (var i = 0; i < 3; i++) {
+      System.gc();
+    }
+    // the eden is empty after a full GC, apart from the TLABs allocated since,
+    // which are counted as used even if they are mostly empty
+    return ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(pool -> pool.getType() == MemoryType.HEAP && !pool.getName().contains("Eden"))
+        .mapToLong(pool -> pool.getUsage().getUsed())
+        .sum();
+  }
+
+  private static final int YOUNG_GENERATION_MB = 16;
+
+  private static long[] gcCountAndTime() {
+    var count = 0L;
+    var time = 0L;
+    for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    return new long[] { count, time };
+  }
+
+  private record GcListener(AtomicLong notifications, AtomicLong maxPause, AtomicLong maxLiveHeap) {
+    // the notifications are sent asynchronously
+    void awaitNotifications(long count) throws InterruptedException {
+      var deadline = System.nanoTime() + 1_000_000_000L;
+      while (notifications.get() < count && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+    }
+  }
+
+  // records the longest pause and the largest heap occupancy after a GC reported by the GC notifications,
+  // the GCs triggered by System.gc() to measure the heap are not part of the build
+  private static GcListener listenToGcs() {
+    var heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(pool -> pool.getType() == MemoryType.HEAP)
+        .map(pool -> pool.getName())
+        .collect(Collectors.toSet());
+    var listener = new GcListener(new AtomicLong(), new AtomicLong(), new AtomicLong());
+    for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (gc instanceof NotificationEmitter emitter) {
+        emitter.addNotificationListener((notification, handback) -> {
+          if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            var info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            listener.notifications.incrementAndGet();
+            if (info.getGcCause().equals("System.gc()")) {
+              return;
+            }
+            var liveHeap = info.getGcInfo().getMemoryUsageAfterGc().entrySet().stream()
+                .filter(entry -> heapPools.contains(entry.getKey()))
+                .mapToLong(entry -> entry.getValue().getUsed())
+                .sum();
+            listener.maxLiveHeap.accumulateAndGet(liveHeap, Math::max);
+            // the concurrent cycles of G1 and ZGC are not pauses
+            if (!info.getGcName().contains("Concurrent") && !info.getGcName().contains("Cycles")) {
+              listener.maxPause.accumulateAndGet(info.getGcInfo().getDuration(), Math::max);
+            }
+          }
+        }, null, null);
+      }
+    }
+    return listener;
+  }
+
+  // runs in the child JVM, prints one line of CSV
+  private static String measure(Variant variant, int size) throws InterruptedException {
+    var before = usedHeap();
+    var gcListener = listenToGcs();
+    var gcBefore = gcCountAndTime();
+    var start = System.nanoTime();
+    var map = variant.builder.build(size);
+    var buildTime = System.nanoTime() - start;
+    var gcAfter = gcCountAndTime();
+    var after = usedHeap();
+    gcListener.awaitNotifications(gcCountAndTime()[0] - gcBefore[0]);
+    var retained = after - before;
+    // the map after the build is live too, even if no GC happens during the build
+    var peakLive = Math.max(gcListener.maxLiveHeap.get(), after) - before;
+    if (map.hashCode() == 42) {  // keep the map alive until the heap is measured
+      System.err.println();
+    }
+    var gcs = ManagementFactory.getGarbageCollectorMXBeans().stream()
+        .map(gc -> gc.getName().replace(',', ' '))
+        .collect(Collectors.joining("+"));
+    return String.join(",",
+        System.getProperty("footprint.version", "dev"),
+        variant.name,
+        "" + size,
+        "%.1f".formatted(buildTime / 1e6),
+        "%.0f".formatted(size * 1e9 / buildTime),
+        "" + retained,
+        "%.2f".formatted(retained / (double) size),
+        "" + peakLive,
+        "" + (gcAfter[0] - gcBefore[0]),
+        "" + (gcAfter[1] - gcBefore[1]),
+        "" + gcListener.maxPause.get(),
+        System.getProperty("java.version"),
+        gcs);
+  }
+
+  private static String fork(Variant variant, int size) throws IOException, InterruptedException {
+    var java = ProcessHandle.current().info().command().orElse("java");
+    var command = new ArrayList<String>();
+    command.add(java);
+    var inputArguments = ManagementFactory.getRuntimeMXBean().getInputArguments();
+    command.addAll(inputArguments);
+    if (inputArguments.stream().noneMatch(argument -> argument.startsWith("-Xmn") || argument.contains("NewSize"))) {
+      command.add("-Xmn" + YOUNG_GENERATION_MB + "m");
+    }
+    command.addAll(List.of("-cp", System.getProperty("java.class.path"),
+        FootprintBenchmark.class.getName(), "--measure", variant.name, "" + size));
+    var process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    var output = new String(process.getInputStream().readAllBytes()).strip();
+    if (process.waitFor() != 0) {
+      throw new IOException("measure of " + variant.name + " " + size + " failed with exit code " + process.exitValue());
+    }
+    return output;
+  }
+
+  private static Variant variant(String name) {
+    return VARIANTS.stream()
+        .filter(variant -> variant.name.equals(name))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("unknown variant " + name));
+  }
+
+  private static <T> List<T> parse(String list, Function<String, T> mapper) {
+    return Arrays.stream(list.split(",")).map(String::strip).filter(s -> !s.isEmpty()).map(mapper).toList();
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length == 3 && args[0].equals("--measure")) {
+      System.out.println(measure(variant(args[1]), Integer.parseInt(args[2])));
+      return;
+    }
+    if (args.length < 2) {
+      System.err.println("usage: FootprintBenchmark sizes output.csv [variants]");
+      System.exit(1);
+    }
+    var sizes = parse(args[0], Integer::parseInt);
+    var output = Path.of(args[1]);
+    var variants = args.length > 2 && !args[2].isBlank() ? parse(args[2], FootprintBenchmark::variant) : VARIANTS;
+
+    var lines = new ArrayList<String>();
+    lines.add(HEADER);
+    System.out.println(HEADER);
+    for (var size : sizes) {
+      for (var variant : variants) {
+        if (size > variant.maxSize) {
+          System.out.println("skip " + variant.name + " " + size + ", too many entries");
+          continue;
+        }
+        var line = fork(variant, size);
+        System.out.println(line);
+        lines.add(line);
+      }
+    }
+    Files.createDirectories(output.toAbsolutePath().getParent());
+    Files.write(output, lines);
+    System.out.println("results written to " + output);
+  }
+}
@@ -0,0 +1,168 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordColumnMapTest {
+  record Stats(long count, double sum, int max) {}
+
+  record AllTypes(boolean z, byte b, short s, char c, int i, long l, float f, double d, String text) {}
+
+  @Test
+  public void put() {
+    var map = new RecordColumnMap<String, Stats>(Stats.class);
+    assertTrue(map.put("foo", new Stats(1, 2.5, 3)));
+    assertTrue(map.put("bar", new Stats(4, 5.5, 6)));
+    assertFalse(map.put("foo", new Stats(7, 8.5, 9)));
+    assertAll(
+        () -> assertEquals(2, map.size()),
+        () -> assertEquals(new Stats(7, 8.5, 9), map.get("foo")),
+        () -> assertEquals(new Stats(4, 5.5, 6), map.get("bar")),
+        () -> assertNull(map.get("baz"))
+    );
+  }
+
+  @Test
+  public void putALot() {
+    var map = new RecordColumnMap<Integer, Stats>(Stats.class);
+    range(0, 100_000).forEach(i -> map.put(i, new Stats(i, i / 2.0, -i)));
+    assertEquals(100_000, map.size());
+    for (var i = 0; i < 100_000; i++) {
+      assertEquals(new Stats(i, i / 2.0, -i), map.get(i));
+    }
+  }
+
+  @Test
+  public void allTypes() {
+    var map = new RecordColumnMap<String, AllTypes>(AllTypes.class);
+    var value1 = new AllTypes(true, (byte) -3, (short) 300, 'x', 42, 1L << 40, 1.5f, 2.25, "foo");
+    var value2 = new AllTypes(false, Byte.MIN_VALUE, Short.MAX_VALUE, Character.MAX_VALUE, -1, Long.MIN_VALUE, Float.NaN, -0.0, null);
+    map.put("1", value1);
+    map.put("2", value2);
+    assertAll(
+        () -> assertEquals(value1, map.get("1")),
+        () -> assertEquals(value2, map.get("2"))
+    );
+  }
+
+  record Empty() {}
+
+  @Test
+  public void emptyRecord() {
+    var map = new RecordColumnMap<String, Empty>(Empty.class);
+    map.put("foo", new Empty());
+    assertAll(
+        () -> assertEquals(new Empty(), map.get("foo")),
+        () -> assertNull(map.get("bar"))
+    );
+  }
+
+  @Test
+  public void containsKey() {
+    var map = new RecordColumnMap<String, Stats>(Stats.class);
+    map.put("foo", new Stats(1, 2, 3));
+    assertAll(
+        () -> assertTrue(map.containsKey("foo")),
+        () -> assertFalse(map.containsKey("bar")),
+        () -> assertEquals(0, map.indexOf("foo")),
+        () -> assertEquals(-1, map.indexOf("bar"))
+    );
+  }
+
+  @Test
+  public void columns() {
+    var map = new RecordColumnMap<Integer, Stats>(Stats.class);
+    range(0, 1_000).forEach(i -> map.put(i, new Stats(i, i * 2.0, i % 10)));
+    var counts = map.longColumn("count");
+    var sums = map.doubleColumn("sum");
+    var maxs = map.intColumn("max");
+    var total = 0L;
+    for (var i = 0; i < counts.size(); i++) {
+      total += counts.get(i);
+    }
+    var finalTotal = total;
+    assertAll(
+        () -> assertEquals(499_500L, finalTotal),
+        () -> assertEquals(999_000.0, sums.stream().sum()),
+        () -> assertEquals(9, maxs.stream().max().orElseThrow()),
+        () -> assertEquals(7, maxs.get(map.indexOf(17))),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> maxs.get(1_000))
+    );
+  }
+
+  @Test
+  public void columnsInvalid() {
+    var map = new RecordColumnMap<Integer, Stats>(Stats.class);
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> map.intColumn("count")),
+        () -> assertThrows(IllegalArgumentException.class, () -> map.longColumn("foo")),
+        () -> assertThrows(NullPointerException.class, () -> map.doubleColumn(null))
+    );
+  }
+
+  @Test
+  public void iterator() {
+    var map = new RecordColumnMap<String, Stats>(Stats.class);
+    map.put("foo", new Stats(1, 2, 3));
+    map.put("bar", new Stats(4, 5, 6));
+    var list = new ArrayList<RecordEntry<String, Stats>>();
+    for (var entry : map) {
+      list.add(entry);
+    }
+    assertEquals(List.of(RecordEntry.of("foo", new Stats(1, 2, 3)), RecordEntry.of("bar", new Stats(4, 5, 6))), list);
+  }
+
+  @Test
+  public void forEach() {
+    var map = new RecordColumnMap<Integer, Stats>(Stats.class);
+    range(0, 1_000).forEach(i -> map.put(i, new Stats(i, i, i)));
+    var box = new Object() { int counter; };
+    map.forEach((key, value) -> {
+      assertEquals(box.counter, key);
+      assertEquals(new Stats(box.counter, box.counter, box.counter), value);
+      box.counter++;
+    });
+    assertEquals(1_000, box.counter);
+  }
+
+  @Test
+  public void keyAtValueAt() {
+    var map = new RecordColumnMap<String, Stats>(Stats.class);
+    map.put("foo", new Stats(1, 2, 3));
+    assertAll(
+        () -> assertEquals("foo", map.keyAt(0)),
+        () -> assertEquals(new Stats(1, 2, 3), map.valueAt(0)),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> map.keyAt(1))
+    );
+  }
+
+  @Test
+  public void testToString() {
+    var map = new RecordColumnMap<String, Stats>(Stats.class);
+    map.put("foo", new Stats(1, 2, 3));
+    assertEquals("{foo=Stats[count=1, sum=2.0, max=3]}", map.toString());
+  }
+
+  @Test
+  public void notARecord() {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Class<Record> type = (Class) String.class;
+    assertThrows(IllegalArgumentException.class, () -> new RecordColumnMap<String, Record>(type));
+  }
+
+  @Test
+  public void putNull() {
+    var map = new RecordColumnMap<String, Stats>(Stats.class);
+    assertAll(
+        () -> assertThrows(NullPointerException.class, () -> map.put(null, new Stats(1, 2, 3))),
+        () -> assertThrows(NullPointerException.class, () -> map.put("foo", null)),
+        () -> assertThrows(NullPointerException.class, () -> map.get(null))
+    );
+  }
+}
@@ -0,0 +1,238 @@
+package com.github.forax.recordmap;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks the number of bytes allocated by the operations of {@link RecordMap}, {@link BinaryKeyRecordMap}
+ * and {@link RecordColumnMap}.
+ * The read paths and the internal iterations should not allocate, the write paths should only allocate the entries.
+ */
+public class RecordMapAllocationTest {
+  private static final int WARMUP = 50_000;
+  private static final int ITERATIONS = 100_000;
+  private static final int KEY_COUNT = 1 << 10;
+
+  private static com.sun.management.ThreadMXBean threadMXBean;
+  private static final Integer[] KEYS = range(0, 2 * KEY_COUNT).boxed().toArray(Integer[]::new);
+
+  @BeforeAll
+  public static void checkThreadMXBean() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  private static RecordMap<Integer, Integer> newMap() {
+    var map = new RecordMap<Integer, Integer>();
+    for (var i = 0; i < KEY_COUNT; i++) {
+      map.put(KEYS[i], KEYS[i]);
+    }
+    return map;
+  }
+
+  // returns the number of bytes allocated per call to the operation, after a warm-up
+  private static double allocatedBytesPerOperation(IntUnaryOperator operation) {
+    var result = 0;
+    for (var i = 0; i < WARMUP; i++) {
+      result += operation.applyAsInt(i);
+    }
+    var overhead = -threadMXBean.getCurrentThreadAllocatedBytes() + threadMXBean.getCurrentThreadAllocatedBytes();
+    var start = threadMXBean.getCurrentThreadAllocatedBytes();
+    for (var i = 0; i < ITERATIONS; i++) {
+      result += operation.applyAsInt(i);
+    }
+    var end = threadMXBean.getCurrentThreadAllocatedBytes();
+    assertNotEquals(42, result);  // keep the result alive
+    return Math.max(0, end - start - overhead) / (double) ITERATIONS;
+  }
+
+  private static void assertNoAllocation(IntUnaryOperator operation) {
+    var bytes = allocatedBytesPerOperation(operation);
+    assertEquals(0.0, bytes, "allocated " + bytes + " bytes per operation");
+  }
+
+  private static void assertAllocationAtMost(int maxBytes, IntUnaryOperator operation) {
+    var bytes = allocatedBytesPerOperation(operation);
+    assertTrue(bytes <= maxBytes, "allocated " + bytes + " bytes per operation");
+  }
+
+  @Test
+  public void get() {
+    var map = newMap();
+    assertNoAllocation(i -> map.get(KEYS[i & (KEY_COUNT - 1)]));
+  }
+
+  @Test
+  public void getMissing() {
+    var map = newMap();
+    assertNoAllocation(i -> map.get(KEYS[KEY_COUNT + (i & (KEY_COUNT - 1))]) == null ? 1 : 0);
+  }
+
+  @Test
+  public void getOrDefault() {
+    var map = newMap();
+    var defaultValue = (Integer) (-1);
+    assertNoAllocation(i -> map.getOrDefault(KEYS[i & (2 * KEY_COUNT - 1)], defaultValue));
+  }
+
+  @Test
+  public void containsKey() {
+    var map = newMap();
+    assertNoAllocation(i -> map.containsKey(KEYS[i & (2 * KEY_COUNT - 1)]) ? 1 : 0);
+  }
+
+  @Test
+  public void findAndValueAt() {
+    var map = newMap();
+    assertNoAllocation(i -> {
+      var slot = map.find(KEYS[i & (2 * KEY_COUNT - 1)]);
+      return slot < 0 ? slot : map.valueAt(slot);
+    });
+  }
+
+  private static BinaryKeyRecordMap<Integer> newBinaryKeyMap(ByteBuffer buffer) {
+    var map = new BinaryKeyRecordMap<Integer>();
+    for (var i = 0; i < KEY_COUNT; i++) {
+      buffer.putInt(i * 4, i);
+      map.put(buffer, i * 4, 4, KEYS[i]);
+    }
+    return map;
+  }
+
+  @Test
+  public void binaryKeyGetHeapBuffer() {
+    var buffer = ByteBuffer.allocate(KEY_COUNT * 4);
+    var map = newBinaryKeyMap(buffer);
+    assertNoAllocation(i -> map.get(buffer, (i & (KEY_COUNT - 1)) * 4, 4));
+  }
+
+  @Test
+  public void binaryKeyGetDirectBuffer() {
+    var buffer = ByteBuffer.allocateDirect(KEY_COUNT * 4);
+    var map = newBinaryKeyMap(buffer);
+    assertNoAllocation(i -> map.get(buffer, (i & (KEY_COUNT - 1)) * 4, 4));
+  }
+
+  @Test
+  public void binaryKeyMissing() {
+    var buffer = ByteBuffer.allocateDirect(KEY_COUNT * 4);
+    var map = newBinaryKeyMap(buffer);
+    assertNoAllocation(i -> map.indexOf(buffer, i & (KEY_COUNT - 1), 3));
+  }
+
+  @Test
+  public void forEachBiConsumer() {
+    var map = newMap();
+    var consumer = new BiConsumer<Integer, Integer>() {
+      private int sum;
+
+      @Override
+      public void accept(Integer key, Integer value) {
+        sum += key + value;
+      }
+    };
+    assertNoAllocation(i -> {
+      map.forEach(consumer);
+      return consumer.sum;
+    });
+  }
+
+  @Test
+  public void forEachKey() {
+    var map = newMap();
+    var consumer = new Consumer<Integer>() {
+      private int sum;
+
+      @Override
+      public void accept(Integer key) {
+        sum += key;
+      }
+    };
+    assertNoAllocation(i -> {
+      map.forEachKey(consumer);
+      return consumer.sum;
+    });
+  }
+
+  @Test
+  public void forEachIndexed() {
+    var map = newMap();
+    var consumer = new RecordMap.IndexedConsumer<Integer, Integer>() {
+      private int sum;
+
+      @Override
+      public void accept(int index, Integer key, Integer value) {
+        sum += index + value;
+      }
+    };
+    assertNoAllocation(i -> {
+      map.forEachIndexed(consumer);
+      return consumer.sum;
+    });
+  }
+
+  @Test
+  public void viewContains() {
+    var map = newMap();
+    var entry = RecordMap.RecordEntry.of(KEYS[0], KEYS[0]);
+    assertNoAllocation(i -> {
+      var key = KEYS[i & (2 * KEY_COUNT - 1)];
+      return (map.keySet().contains(key) ? 1 : 0) + (map.entrySet().contains(entry) ? 1 : 0) + map.values().size();
+    });
+  }
+
+  record Point(long x, long y) {}
+
+  @Test
+  public void recordColumnMapGet() {
+    var map = new RecordColumnMap<Integer, Point>(Point.class);
+    for (var i = 0; i < KEY_COUNT; i++) {
+      map.put(KEYS[i], new Point(1L << 40 | i, -i));
+    }
+    // only the record, no array of arguments and no boxing
+    assertAllocationAtMost(32, i -> (int) map.get(KEYS[i & (KEY_COUNT - 1)]).x());
+  }
+
+  @Test
+  public void putExistingKey() {
+    var map = newMap();
+    // one RecordEntry
+    assertAllocationAtMost(32, i -> {
+      map.put(KEYS[i & (KEY_COUNT - 1)], KEYS[i & (KEY_COUNT - 1)]);
+      return map.size();
+    });
+  }
+
+  @Test
+  public void mergeExistingKey() {
+    var map = newMap();
+    // one RecordEntry
+    assertAllocationAtMost(32, i -> {
+      map.merge(KEYS[i & (KEY_COUNT - 1)], KEYS[i & (KEY_COUNT - 1)], (v1, v2) -> v1);
+      return map.size();
+    });
+  }
+
+  @Test
+  public void putNewKeys() {
+    var keys = range(0, WARMUP + ITERATIONS).boxed().toArray(Integer[]::new);
+    var map = new RecordMap<Integer, Integer>();
+    // one RecordEntry and the amortized growth of the entries and offsets arrays
+    assertAllocationAtMost(96, i -> {
+      map.put(keys[i], keys[i]);
+      return map.size();
+    });
+  }
+}
@@ -0,0 +1,95 @@
+package com.github.forax.recordmap;
+
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * Measures {@link RecordMap#mergeAll}, {@link RecordMap#intersect} and {@link RecordMap#difference}
+ * against the same operations written on {@link HashMap} with {@code putAll()}/{@code merge()}
+ * and {@code forEach()} + {@code get()}.
+ *
+ * The two maps have the same size and half of their keys in common, the merges start from an
+ * empty map presized to the size of one map.
+ *
+ * Usage: {@code RecordMapSetOperationBenchmark [size]}, by default 1_000_000.
+ */
+public class RecordMapSetOperationBenchmark {
+  private static final int ROUNDS = 10;
+
+  // best time of ROUNDS rounds in ns per entry of the maps
+  private static double measure(int size, Supplier<Object> operation) {
+    var best = Long.MAX_VALUE;
+    var sum = 0;
+    for (var round = 0; round < ROUNDS; round++) {
+      var start = System.nanoTime();
+      sum += operation.get().hashCode();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    if (sum == 42) {
+      System.out.println();
+    }
+    return best / (double) size;
+  }
+
+  public static void main(String[] args) {
+    var size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    var map1 = new RecordMap<Integer, Integer>();
+    var map2 = new RecordMap<Integer, Integer>();
+    var hashMap1 = new HashMap<Integer, Integer>();
+    var hashMap2 = new HashMap<Integer, Integer>();
+    for (var i = 0; i < size; i++) {
+      map1.put(i, i);
+      hashMap1.put(i, i);
+      map2.put(i + size / 2, i);
+      hashMap2.put(i + size / 2, i);
+    }
+
+    var mergeAll = measure(size, () -> {
+      var map = new RecordMap<Integer, Integer>(size);
+      map.mergeAll(map1, Integer::sum);
+      map.mergeAll(map2, Integer::sum);
+      return map.size();
+    });
+    var hashMapMergeAll = measure(size, () -> {
+      var map = HashMap.<Integer, Integer>newHashMap(size);
+      hashMap1.forEach((key, value) -> map.merge(key, value, Integer::sum));
+      hashMap2.forEach((key, value) -> map.merge(key, value, Integer::sum));
+      return map.size();
+    });
+    var putAll = measure(size, () -> {
+      var map = HashMap.<Integer, Integer>newHashMap(size);
+      map.putAll(hashMap1);
+      map.putAll(hashMap2);
+      return map.size();
+    });
+    System.out.printf("mergeAll:   RecordMap %6.2f ns/entry, HashMap merge %6.2f ns/entry, HashMap putAll %6.2f ns/entry%n",
+        mergeAll, hashMapMergeAll, putAll);
+
+    var intersect = measure(size, () -> map1.intersect(map2, Integer::sum).size());
+    var hashMapIntersect = measure(size, () -> {
+      var map = new HashMap<Integer, Integer>();
+      hashMap1.forEach((key, value) -> {
+        var other = hashMap2.get(key);
+        if (other != null) {
+          map.put(key, value + other);
+        }
+      });
+      return map.size();
+    });
+    System.out.printf("intersect:  RecordMap %6.2f ns/entry, HashMap forEach+get %6.2f ns/entry%n",
+        intersect, hashMapIntersect);
+
+    var difference = measure(size, () -> map1.difference(map2).size());
+    var hashMapDifference = measure(size, () -> {
+      var map = new HashMap<Integer, Integer>();
+      hashMap1.forEach((key, value) -> {
+        if (!hashMap2.containsKey(key)) {
+          map.put(key, value);
+        }
+      });
+      return map.size();
+    });
+    System.out.printf("difference: RecordMap %6.2f ns/entry, HashMap forEach+get %6.2f ns/entry%n",
+        difference, hashMapDifference);
+  }
+}
@@ -1,7 +1,14 @@
 package com.github.forax.recordmap;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -136,6 +143,109 @@ public class RecordMapTest {
     assertThrows(UnsupportedOperationException.class, () -> map.remove("foo", 3));
   }
 
+  @Test
+  public void removeIf() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 1_000_000).forEach(i -> map.put(i, i));
+    assertTrue(map.removeIf((key, value) -> key % 3 != 0));
+    assertEquals(333_334, map.size());
+    var counter = 0;
+    for(var entry: map) {
+      assertEquals(counter, entry.key());
+      assertEquals(counter, entry.value());
+      counter += 3;
+    }
+    assertAll(
+        () -> assertEquals(999, map.get(999)),
+        () -> assertNull(map.get(998)),
+        () -> assertFalse(map.containsKey(1))
+    );
+  }
+
+  @Test
+  public void removeIfNoneRemoved() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    assertFalse(map.removeIf((key, value) -> value > 1));
+    assertEquals(Map.of("foo", 1), map);
+  }
+
+  @Test
+  public void removeIfAndPut() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    map.put("bar", 2);
+    map.put("baz", 3);
+    assertTrue(map.removeIf((key, value) -> value == 2));
+    map.put("whizz", 4);
+    map.put("foo", 5);
+    assertAll(
+        () -> assertEquals(3, map.size()),
+        () -> assertEquals(Map.of("foo", 5, "baz", 3, "whizz", 4), map),
+        () -> assertEquals("{foo=5, baz=3, whizz=4}", map.toString())
+    );
+  }
+
+  @Test
+  public void removeIfAll() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 1_000).forEach(i -> map.put(i, i));
+    assertTrue(map.removeIf((key, value) -> true));
+    assertTrue(map.isEmpty());
+    range(0, 1_000).forEach(i -> map.put(i, -i));
+    assertEquals(-500, map.get(500));
+  }
+
+  @Test
+  public void removeIfPredicateThrows() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 10).forEach(i -> map.put(i, i));
+    assertThrows(IllegalStateException.class, () -> map.removeIf((key, value) -> {
+      if (key == 5) {
+        throw new IllegalStateException();
+      }
+      return key % 2 == 0;
+    }));
+    assertAll(
+        () -> assertEquals(10, map.size()),
+        () -> assertEquals("{0=0, 1=1, 2=2, 3=3, 4=4, 5=5, 6=6, 7=7, 8=8, 9=9}", map.toString()),
+        () -> range(0, 10).forEach(i -> assertEquals(i, map.get(i)))
+    );
+  }
+
+  @Test
+  public void removeIfPredicateModifiesTheMap() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 10).forEach(i -> map.put(i, i));
+    assertThrows(ConcurrentModificationException.class, () -> map.removeIf((key, value) -> {
+      map.put(key + 100, value);
+      return true;
+    }));
+    assertAll(
+        () -> assertEquals(20, map.size()),
+        () -> range(0, 10).forEach(i -> assertEquals(i, map.get(i))),
+        () -> range(0, 10).forEach(i -> assertEquals(i, map.get(i + 100)))
+    );
+  }
+
+  @Test
+  public void removeAllKeys() {
+    var map = new RecordMap<String, Integer>();
+    map.putAll(Map.of("Iga", 3, "Olga", 4, "Sega", 8));
+    assertTrue(map.removeAllKeys(Set.of("Olga", "Ada")));
+    assertFalse(map.removeAllKeys(Set.of("Ada")));
+    assertEquals(Map.of("Iga", 3, "Sega", 8), map);
+  }
+
+  @Test
+  public void retainAllKeys() {
+    var map = new RecordMap<String, Integer>();
+    map.putAll(Map.of("Iga", 3, "Olga", 4, "Sega", 8));
+    assertTrue(map.retainAllKeys(Set.of("Olga", "Ada")));
+    assertFalse(map.retainAllKeys(Set.of("Olga")));
+    assertEquals(Map.of("Olga", 4), map);
+  }
+
 
 
   @Test
@@ -151,6 +261,340 @@ public class RecordMapTest {
     );
   }
 
+  @Test
+  public void presized() {
+    var map = new RecordMap<Integer, Integer>(1_000);
+    range(0, 10_000).forEach(i -> map.put(i, i));
+    assertAll(
+        () -> assertEquals(10_000, map.size()),
+        () -> assertEquals(7_777, map.get(7_777)),
+        () -> assertTrue(new RecordMap<String, String>(0).isEmpty()),
+        () -> assertThrows(IllegalArgumentException.class, () -> new RecordMap<String, String>(-1))
+    );
+  }
+
+  @Test
+  public void mergeAll() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    map.put("bar", 2);
+    var delta = new RecordMap<String, Integer>();
+    delta.put("bar", 10);
+    delta.put("baz", 20);
+    map.mergeAll(delta, Integer::sum);
+    assertAll(
+        () -> assertEquals(3, map.size()),
+        () -> assertEquals("{foo=1, bar=12, baz=20}", map.toString()),
+        () -> assertEquals(Map.of("bar", 10, "baz", 20), delta)
+    );
+  }
+
+  @Test
+  public void mergeAllALot() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 100_000).forEach(i -> map.put(i, i));
+    var other = new RecordMap<Integer, Integer>();
+    range(50_000, 300_000).forEach(i -> other.put(i, 1));
+    map.mergeAll(other, Integer::sum);
+    assertEquals(300_000, map.size());
+    var counter = 0;
+    for(var entry: map) {
+      assertEquals(counter, entry.key());
+      assertEquals(counter < 50_000 ? counter : counter < 100_000 ? counter + 1 : 1, entry.value());
+      counter++;
+    }
+  }
+
+  @Test
+  public void intersect() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    map.put("bar", 2);
+    map.put("baz", 3);
+    var other = new RecordMap<String, String>();
+    other.put("baz", "c");
+    other.put("foo", "a");
+    other.put("whizz", "d");
+    other.put("whozz", "e");
+    assertAll(
+        () -> assertEquals(Map.of("foo", "1a", "baz", "3c"), map.intersect(other, (v1, v2) -> v1 + v2)),
+        () -> assertEquals(Map.of("foo", "a1", "baz", "c3"), other.intersect(map, (v1, v2) -> v1 + v2)),
+        () -> assertEquals(Map.of(), map.intersect(new RecordMap<String, Integer>(), Integer::sum))
+    );
+  }
+
+  @Test
+  public void intersectALot() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 100_000).forEach(i -> map.put(i, i));
+    var other = new RecordMap<Integer, Integer>();
+    range(0, 300_000).filter(i -> i % 2 == 0).forEach(i -> other.put(i, i));
+    var result = map.intersect(other, Integer::sum);
+    assertEquals(50_000, result.size());
+    result.forEach((key, value) -> assertEquals(2 * key, value));
+  }
+
+  @Test
+  public void difference() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    map.put("bar", 2);
+    map.put("baz", 3);
+    var other = new RecordMap<String, String>();
+    other.put("bar", "b");
+    other.put("whizz", "d");
+    var result = map.difference(other);
+    assertAll(
+        () -> assertEquals("{foo=1, baz=3}", result.toString()),
+        () -> assertEquals(3, map.size())
+    );
+  }
+
+  @Test
+  public void stats() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 1_000).forEach(i -> map.put(i, i));
+    var stats = map.stats();
+    assertAll(
+        () -> assertEquals(1_000, stats.size()),
+        () -> assertEquals(2_048, stats.capacity()),
+        () -> assertEquals(1_000 / 2_048.0, stats.loadFactor()),
+        () -> assertEquals(10, stats.rehashCount()),
+        () -> assertEquals(0, stats.maxProbeLength()),
+        () -> assertArrayEquals(new int[] { 1_000 }, stats.probeLengthHistogram())
+    );
+  }
+
+  @Test
+  public void statsCollisions() {
+    record Key(int value) {
+      @Override
+      public int hashCode() {
+        return 0;
+      }
+    }
+    var map = new RecordMap<Key, Integer>(16);
+    range(0, 5).forEach(i -> map.put(new Key(i), i));
+    var stats = map.stats();
+    assertAll(
+        () -> assertEquals(0, stats.rehashCount()),
+        () -> assertEquals(4, stats.maxProbeLength()),
+        () -> assertArrayEquals(new int[] { 1, 1, 1, 1, 1 }, stats.probeLengthHistogram())
+    );
+  }
+
+  @Test
+  public void statsEmpty() {
+    var stats = new RecordMap<String, String>().stats();
+    assertAll(
+        () -> assertEquals(0, stats.size()),
+        () -> assertEquals(0.0, stats.loadFactor()),
+        () -> assertArrayEquals(new int[0], stats.probeLengthHistogram())
+    );
+  }
+
+  @Test
+  public void rehashEvent() throws IOException {
+    var path = Files.createTempFile("record-map", ".jfr");
+    try {
+      try (var recording = new Recording()) {
+        recording.enable("com.github.forax.recordmap.RecordMapRehash");
+        recording.start();
+        var map = new RecordMap<Integer, Integer>();
+        range(0, 1_000).forEach(i -> map.put(i, i));
+        recording.stop();
+        recording.dump(path);
+      }
+      var events = RecordingFile.readAllEvents(path);
+      assertEquals(10, events.size());
+      var last = events.get(events.size() - 1);
+      assertAll(
+          () -> assertEquals(512, last.getInt("oldCapacity")),
+          () -> assertEquals(1_024, last.getInt("newCapacity")),
+          () -> assertEquals(512, last.getInt("size"))
+      );
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void findAndUpdate() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    map.put("bar", 2);
+    var slot = map.find("bar");
+    assertEquals(1, slot);
+    assertEquals("bar", map.keyAt(slot));
+    assertEquals(2, map.valueAt(slot));
+    assertEquals(2, map.setValueAt(slot, 20));
+    assertAll(
+        () -> assertEquals(20, map.get("bar")),
+        () -> assertEquals(RecordMap.RecordEntry.of("bar", 20), map.entryAt(slot)),
+        () -> assertEquals(2, map.size())
+    );
+  }
+
+  @Test
+  public void findAndInsert() {
+    var map = new RecordMap<Integer, Integer>();
+    for (var i = 0; i < 100_000; i++) {
+      var slot = map.find(i);
+      assertTrue(slot < 0);
+      assertEquals(i, map.insertAt(slot, i, -i));
+    }
+    assertEquals(100_000, map.size());
+    for (var i = 0; i < 100_000; i++) {
+      var slot = map.find(i);
+      assertEquals(i, slot);
+      assertEquals(-i, map.valueAt(slot));
+    }
+  }
+
+  @Test
+  public void findCounter() {
+    var map = new RecordMap<String, Integer>();
+    for (var word : "a b a c b a".split(" ")) {
+      var slot = map.find(word);
+      if (slot < 0) {
+        map.insertAt(slot, word, 1);
+      } else {
+        map.setValueAt(slot, map.valueAt(slot) + 1);
+      }
+    }
+    assertEquals("{a=3, b=2, c=1}", map.toString());
+  }
+
+  @Test
+  public void insertAtInvalidSlot() {
+    var map = new RecordMap<String, Integer>();
+    var slot = map.find("foo");
+    map.insertAt(slot, "foo", 1);
+    assertAll(
+        () -> assertThrows(IllegalStateException.class, () -> map.insertAt(slot, "foo", 2)),
+        () -> assertThrows(IllegalArgumentException.class, () -> map.insertAt(0, "foo", 2)),
+        () -> assertEquals(1, map.get("foo"))
+    );
+  }
+
+  @Test
+  public void insertAtStaleSlotAfterRehash() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 3).forEach(i -> map.put(i, i));
+    // 12 is in the slot 4 of the table of 8 slots, but in the slot 12 after a rehash
+    var slot = map.find(12);
+    var rehashCount = map.stats().rehashCount();
+    range(20, 100).forEach(i -> map.put(i, i));
+    assertTrue(map.stats().rehashCount() > rehashCount);
+    assertThrows(IllegalStateException.class, () -> map.insertAt(slot, 12, 1));
+    map.put(12, 2);
+    assertAll(
+        () -> assertEquals(84, map.size()),
+        () -> assertEquals(2, map.get(12))
+    );
+  }
+
+  @Test
+  public void insertAtStaleSlotAfterAnotherFind() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 3).forEach(i -> map.put(i, i));
+    var slot = map.find(12);
+    range(20, 100).forEach(i -> map.put(i, i));
+    map.find(200);
+    assertThrows(IllegalStateException.class, () -> map.insertAt(slot, 12, 1));
+    assertNull(map.get(12));
+  }
+
+  @Test
+  public void insertAtStaleSlotAfterRemoveIf() {
+    var map = new RecordMap<Integer, Integer>(64);
+    range(0, 32).forEach(i -> map.put(i * 64, i));
+    var slot = map.find(32 * 64);
+    map.removeIf((key, value) -> value % 2 == 0);
+    assertThrows(IllegalStateException.class, () -> map.insertAt(slot, 32 * 64, 1));
+  }
+
+  @Test
+  public void insertAtTwoFinds() {
+    var map = new RecordMap<String, Integer>(16);
+    var fooSlot = map.find("foo");
+    var barSlot = map.find("bar");
+    assertAll(
+        () -> assertEquals(0, map.insertAt(fooSlot, "foo", 1)),
+        () -> assertEquals(1, map.insertAt(barSlot, "bar", 2)),
+        () -> assertEquals(Map.of("foo", 1, "bar", 2), map)
+    );
+  }
+
+  @Test
+  public void indexedIteration() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 1_000).forEach(i -> map.put(i, 2 * i));
+    for (var i = 0; i < map.size(); i++) {
+      assertEquals(i, map.keyAt(i));
+      assertEquals(2 * i, map.valueAt(i));
+    }
+    assertAll(
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> map.keyAt(1_000)),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> map.valueAt(-1)),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> map.setValueAt(1_000, 3))
+    );
+  }
+
+  @Test
+  public void ofKeyTypeSpecialized() {
+    RecordMap<String, Integer> map = RecordMap.ofKeyType(String.class);
+    map.put("foo", 1);
+    map.put("bar", 2);
+    assertAll(
+        () -> assertEquals("StringKeyRecordMap", map.getClass().getSimpleName()),
+        () -> assertEquals(1, map.get("foo")),
+        () -> assertNull(map.get("baz")),
+        () -> assertEquals(2, map.getOrDefault("bar", -1)),
+        () -> assertEquals(-1, map.getOrDefault("baz", -1)),
+        () -> assertTrue(map.containsKey("bar")),
+        () -> assertFalse(map.containsKey("baz")),
+        () -> assertEquals(Map.of("foo", 1, "bar", 2), map)
+    );
+  }
+
+  @Test
+  public void ofKeyTypeSpecializedALot() {
+    RecordMap<Integer, Integer> map = RecordMap.ofKeyType(Integer.class);
+    range(0, 100_000).forEach(i -> map.put(i, i));
+    assertEquals("IntegerKeyRecordMap", map.getClass().getSimpleName());
+    for (var i = 0; i < 100_000; i++) {
+      assertEquals(i, map.get(i));
+    }
+    assertAll(
+        () -> assertNull(map.get(100_000)),
+        () -> assertFalse(map.containsKey(-1))
+    );
+  }
+
+  @Test
+  public void ofKeyTypeOtherKeyType() {
+    RecordMap<Long, Integer> map = RecordMap.ofKeyType(Long.class);
+    map.put(1L, 1);
+    assertAll(
+        () -> assertNull(map.get(1)),
+        () -> assertEquals(-1, map.getOrDefault("1", -1)),
+        () -> assertFalse(map.containsKey(1.0)),
+        () -> assertEquals(1, map.get(1L))
+    );
+  }
+
+  @Test
+  public void ofKeyTypeNotSpecialized() {
+    record Point(int x, int y) {}
+    RecordMap<Point, String> map = RecordMap.ofKeyType(Point.class);
+    map.put(new Point(1, 2), "foo");
+    assertAll(
+        () -> assertSame(RecordMap.class, map.getClass()),
+        () -> assertEquals("foo", map.get(new Point(1, 2)))
+    );
+  }
+
   @Test
   public void clear() {
     var map = new RecordMap<String, String>();
@@ -234,6 +678,159 @@ public class RecordMapTest {
     }
   }
 
+  @Test
+  public void entrySetContains() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    map.put("bar", 2);
+    var entrySet = map.entrySet();
+    assertAll(
+        () -> assertTrue(entrySet.contains(Map.entry("foo", 1))),
+        () -> assertTrue(entrySet.contains(RecordMap.RecordEntry.of("bar", 2))),
+        () -> assertFalse(entrySet.contains(Map.entry("foo", 2))),
+        () -> assertFalse(entrySet.contains(Map.entry("baz", 1))),
+        () -> assertFalse(entrySet.contains(new AbstractMap.SimpleEntry<String, Integer>(null, 1))),
+        () -> assertFalse(entrySet.contains("foo")),
+        () -> assertFalse(entrySet.contains(null))
+    );
+  }
+
+  @Test
+  public void keySetContains() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    var keySet = map.keySet();
+    map.put("bar", 2);
+    assertAll(
+        () -> assertTrue(keySet.contains("foo")),
+        () -> assertFalse(keySet.contains("bar")),
+        () -> assertFalse(keySet.contains(null))
+    );
+  }
+
+  @Test
+  public void viewsContainsOnPresizedMap() {
+    // no rehash, so the views and the map share the same arrays
+    var map = new RecordMap<String, Integer>(16);
+    map.put("foo", 1);
+    var keySet = map.keySet();
+    var entrySet = map.entrySet();
+    map.put("bar", 2);
+    map.put("foo", 3);
+    assertAll(
+        () -> assertEquals(1, keySet.size()),
+        () -> assertEquals(List.of("foo"), List.copyOf(keySet)),
+        () -> assertTrue(keySet.contains("foo")),
+        () -> assertFalse(keySet.contains("bar")),
+        () -> assertFalse(entrySet.contains(Map.entry("bar", 2))),
+        () -> assertFalse(entrySet.contains(Map.entry("foo", 1))),
+        () -> assertTrue(entrySet.contains(Map.entry("foo", 3))),
+        () -> assertTrue(map.keySet().contains("bar")),
+        () -> assertTrue(map.entrySet().contains(Map.entry("bar", 2)))
+    );
+  }
+
+  @Test
+  public void valuesContains() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    map.put("bar", 2);
+    var values = map.values();
+    assertAll(
+        () -> assertTrue(values.contains(1)),
+        () -> assertTrue(values.contains(2)),
+        () -> assertFalse(values.contains(3)),
+        () -> assertFalse(values.contains(Map.entry("foo", 1))),
+        () -> assertFalse(values.contains(null))
+    );
+  }
+
+  @Test
+  public void viewsAreCached() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    assertAll(
+        () -> assertSame(map.keySet(), map.keySet()),
+        () -> assertSame(map.values(), map.values()),
+        () -> assertSame(map.entrySet(), map.entrySet())
+    );
+  }
+
+  @Test
+  public void viewsAfterUpdates() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    var keySet = map.keySet();
+    var values = map.values();
+    var entrySet = map.entrySet();
+    map.put("bar", 2);
+    map.put("foo", 3);
+    assertAll(
+        () -> assertNotSame(keySet, map.keySet()),
+        () -> assertNotSame(values, map.values()),
+        () -> assertNotSame(entrySet, map.entrySet()),
+        () -> assertEquals(Set.of("foo", "bar"), map.keySet()),
+        () -> assertEquals(List.of(3, 2), map.values()),
+        () -> assertEquals(Set.of(Map.entry("foo", 3), Map.entry("bar", 2)), map.entrySet())
+    );
+  }
+
+  @Test
+  public void viewsAfterRemoveIf() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 10).forEach(i -> map.put(i, i));
+    map.keySet();
+    map.removeIf((key, value) -> key % 2 == 0);
+    assertAll(
+        () -> assertEquals(Set.of(1, 3, 5, 7, 9), map.keySet()),
+        () -> assertFalse(map.keySet().contains(0)),
+        () -> assertEquals(List.of(1, 3, 5, 7, 9), map.values())
+    );
+  }
+
+  @Test
+  public void forEachKey() {
+    var map = new RecordMap<Integer, String>();
+    range(0, 1_000).forEach(i -> map.put(i, "" + i));
+    var keys = new ArrayList<Integer>();
+    map.forEachKey(keys::add);
+    assertEquals(range(0, 1_000).boxed().toList(), keys);
+  }
+
+  @Test
+  public void forEachValue() {
+    var map = new RecordMap<Integer, String>();
+    range(0, 1_000).forEach(i -> map.put(i, "" + i));
+    var values = new ArrayList<String>();
+    map.forEachValue(values::add);
+    assertEquals(range(0, 1_000).mapToObj(i -> "" + i).toList(), values);
+  }
+
+  @Test
+  public void forEachIndexed() {
+    var map = new RecordMap<String, Integer>();
+    range(0, 1_000).forEach(i -> map.put("" + i, i));
+    map.forEachIndexed((index, key, value) -> {
+      assertEquals(index, value);
+      assertEquals("" + index, key);
+      map.setValueAt(index, value * 2);
+    });
+    assertAll(
+        () -> assertEquals(1_000, map.size()),
+        () -> assertEquals(1_998, map.get("999"))
+    );
+  }
+
+  @Test
+  public void forEachKeyValueIndexedNull() {
+    var map = new RecordMap<String, Integer>();
+    assertAll(
+        () -> assertThrows(NullPointerException.class, () -> map.forEachKey(null)),
+        () -> assertThrows(NullPointerException.class, () -> map.forEachValue(null)),
+        () -> assertThrows(NullPointerException.class, () -> map.forEachIndexed(null))
+    );
+  }
+
   @Test
   public void testEquals() {
     var map = new RecordMap<String, Object>();
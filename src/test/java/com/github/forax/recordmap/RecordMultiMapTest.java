@@ -0,0 +1,155 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordMultiMapTest {
+
+  @Test
+  public void put() {
+    var multimap = new RecordMultiMap<String, Integer>();
+    multimap.put("Ana", 12);
+    multimap.put("Bob", 17);
+    multimap.put("Ana", 42);
+    assertAll(
+        () -> assertEquals(3, multimap.size()),
+        () -> assertEquals(2, multimap.keyCount()),
+        () -> assertEquals(List.of(12, 42), multimap.get("Ana")),
+        () -> assertEquals(List.of(17), multimap.get("Bob")),
+        () -> assertEquals(List.of(), multimap.get("Jane"))
+    );
+  }
+
+  @Test
+  public void putALot() {
+    var multimap = new RecordMultiMap<Integer, Integer>();
+    range(0, 1_000_000).forEach(i -> multimap.put(i % 1_000, i));
+    assertEquals(1_000_000, multimap.size());
+    assertEquals(1_000, multimap.keyCount());
+    var values = multimap.get(42);
+    assertEquals(1_000, values.size());
+    for (var i = 0; i < values.size(); i++) {
+      assertEquals(42 + i * 1_000, values.get(i));
+    }
+    var counter = 0;
+    for (var value : values) {
+      assertEquals(42 + counter++ * 1_000, value);
+    }
+  }
+
+  @Test
+  public void isEmpty() {
+    var multimap = new RecordMultiMap<Integer, String>();
+    assertTrue(multimap.isEmpty());
+    multimap.put(0, "cat");
+    assertFalse(multimap.isEmpty());
+  }
+
+  @Test
+  public void containsKey() {
+    var multimap = new RecordMultiMap<String, Integer>();
+    multimap.put("Esther", 12);
+    multimap.put("Elana", 17);
+    assertAll(
+        () -> assertTrue(multimap.containsKey("Elana")),
+        () -> assertFalse(multimap.containsKey("John"))
+    );
+  }
+
+  @Test
+  public void getIsASnapshot() {
+    var multimap = new RecordMultiMap<String, Integer>();
+    multimap.put("foo", 1);
+    var values = multimap.get("foo");
+    multimap.put("foo", 2);
+    assertAll(
+        () -> assertEquals(List.of(1), values),
+        () -> assertEquals(List.of(1, 2), multimap.get("foo"))
+    );
+  }
+
+  @Test
+  public void recordPatternIteration() {
+    var multimap = new RecordMultiMap<String, Integer>();
+    multimap.put("foo", 1);
+    multimap.put("bar", 2);
+    multimap.put("foo", 3);
+    var list = new ArrayList<String>();
+    for (var entry : multimap) {
+      if (entry instanceof RecordEntry<String, Integer>(var key, var value)) {
+        list.add(key + value);
+      }
+    }
+    assertEquals(List.of("foo1", "foo3", "bar2"), list);
+  }
+
+  @Test
+  public void iteratorEmpty() {
+    var multimap = new RecordMultiMap<String, Integer>();
+    assertFalse(multimap.iterator().hasNext());
+  }
+
+  @Test
+  public void forEach() {
+    var multimap = new RecordMultiMap<Integer, Integer>();
+    range(0, 10_000).forEach(i -> multimap.put(i % 10, i));
+    var box = new Object() { int counter; int key; };
+    multimap.forEach((key, value) -> {
+      assertEquals(box.key, key);
+      assertEquals(box.key + 10 * box.counter, value);
+      if (++box.counter == 1_000) {
+        box.counter = 0;
+        box.key++;
+      }
+    });
+    assertEquals(10, box.key);
+  }
+
+  @Test
+  public void trimToSize() {
+    var multimap = new RecordMultiMap<Integer, Integer>();
+    range(0, 1_000).forEach(i -> multimap.put(i % 7, i));
+    multimap.trimToSize();
+    multimap.put(3, 1_000);
+    multimap.put(8, 1_001);
+    assertAll(
+        () -> assertEquals(1_002, multimap.size()),
+        () -> assertEquals(range(0, 1_000).filter(i -> i % 7 == 3).boxed().toList(), multimap.get(3).subList(0, 143)),
+        () -> assertEquals(1_000, multimap.get(3).get(143)),
+        () -> assertEquals(List.of(1_001), multimap.get(8))
+    );
+  }
+
+  @Test
+  public void trimToSizeEmpty() {
+    var multimap = new RecordMultiMap<String, String>();
+    multimap.trimToSize();
+    multimap.put("foo", "bar");
+    assertEquals(List.of("bar"), multimap.get("foo"));
+  }
+
+  @Test
+  public void testToString() {
+    var multimap = new RecordMultiMap<String, Integer>();
+    multimap.put("foo", 1);
+    multimap.put("bar", 2);
+    multimap.put("foo", 3);
+    assertEquals("{foo=[1, 3], bar=[2]}", multimap.toString());
+  }
+
+  @Test
+  public void putNull() {
+    var multimap = new RecordMultiMap<String, Integer>();
+    assertAll(
+        () -> assertThrows(NullPointerException.class, () -> multimap.put(null, 1)),
+        () -> assertThrows(NullPointerException.class, () -> multimap.put("foo", null)),
+        () -> assertThrows(NullPointerException.class, () -> multimap.get(null))
+    );
+  }
+}
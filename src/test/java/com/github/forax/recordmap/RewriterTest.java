@@ -0,0 +1,187 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.Rewriter.Status;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RewriterTest {
+  private static final String PACKAGE = "com/github/forax/recordmap/";
+
+  // copy the classes of RecordMap (already rewritten by the build) into a new classes directory
+  private static Path copyRecordMapClasses(Path directory) throws IOException, URISyntaxException {
+    var source = Path.of(RecordMap.class.getProtectionDomain().getCodeSource().getLocation().toURI()).resolve(PACKAGE);
+    var target = directory.resolve("classes").resolve(PACKAGE);
+    Files.createDirectories(target);
+    try (var stream = Files.list(source)) {
+      for (var path : stream.toList()) {
+        var name = path.getFileName().toString();
+        if (name.equals("RecordMap.class") || name.startsWith("RecordMap$")) {
+          Files.copy(path, target.resolve(name));
+        }
+      }
+    }
+    return directory.resolve("classes");
+  }
+
+  private static int ignored(Path classes) throws IOException {
+    try (var stream = Files.list(classes.resolve(PACKAGE))) {
+      return (int) stream.filter(path -> path.getFileName().toString().startsWith("RecordMap$")).count();
+    }
+  }
+
+  private static List<String> nestMembers(Path classes) throws IOException {
+    var nestMembers = new ArrayList<String>();
+    new ClassReader(Files.readAllBytes(classes.resolve(PACKAGE + "RecordMap.class"))).accept(new ClassVisitor(Opcodes.ASM9) {
+      @Override
+      public void visitNestMember(String nestMember) {
+        nestMembers.add(nestMember);
+      }
+    }, ClassReader.SKIP_CODE);
+    return nestMembers;
+  }
+
+  private static List<String> generatedNestMembers(Path classes) throws IOException {
+    return nestMembers(classes).stream().filter(nestMember -> !nestMember.contains("$")).toList();
+  }
+
+  @Test
+  public void rewriteThenSkip(@TempDir Path directory) throws IOException, URISyntaxException {
+    var classes = copyRecordMapClasses(directory);
+    var ignored = ignored(classes);
+    assertEquals(
+        Map.of(Status.REWRITTEN, 3, Status.SKIPPED, 0, Status.IGNORED, ignored, Status.DELETED, 0),
+        Rewriter.rewrite(classes, "java.lang.String", "java.lang.Integer"));
+    assertEquals(
+        Map.of(Status.REWRITTEN, 0, Status.SKIPPED, 3 + ignored, Status.IGNORED, 0, Status.DELETED, 0),
+        Rewriter.rewrite(classes, "java.lang.String", "java.lang.Integer"));
+  }
+
+  @Test
+  public void rewriteModifiedClass(@TempDir Path directory) throws IOException, URISyntaxException {
+    var classes = copyRecordMapClasses(directory);
+    var ignored = ignored(classes);
+    Rewriter.rewrite(classes, "java.lang.String");
+    var recordEntry = classes.resolve(PACKAGE + "RecordMap$RecordEntry.class");
+    var bytecode = Files.readAllBytes(recordEntry);
+    Files.write(recordEntry, bytecode);  // same content, only the modification time changes
+    assertEquals(0, Rewriter.rewrite(classes, "java.lang.String").get(Status.REWRITTEN));
+
+    var recordMap = classes.resolve(PACKAGE + "RecordMap.class");
+    var writer = new ClassWriter(0);
+    new ClassReader(Files.readAllBytes(recordMap)).accept(new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public void visitEnd() {
+        visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "modified", "I", null, null).visitEnd();
+        super.visitEnd();
+      }
+    }, 0);
+    Files.write(recordMap, writer.toByteArray());
+    // RecordMap is rewritten then its specialization is generated again
+    assertEquals(
+        Map.of(Status.REWRITTEN, 2, Status.SKIPPED, ignored, Status.IGNORED, 0, Status.DELETED, 0),
+        Rewriter.rewrite(classes, "java.lang.String"));
+  }
+
+  @Test
+  public void rewriteAfterRewriterChange(@TempDir Path directory) throws IOException, URISyntaxException {
+    var classes = copyRecordMapClasses(directory);
+    var ignored = ignored(classes);
+    Rewriter.rewrite(classes, "java.lang.String");
+    var cachePath = directory.resolve("rewriter-cache.properties");
+    var properties = new Properties();
+    try (var reader = Files.newBufferedReader(cachePath)) {
+      properties.load(reader);
+    }
+    properties.setProperty("rewriter", "a previous version");
+    try (var writer = Files.newBufferedWriter(cachePath)) {
+      properties.store(writer, null);
+    }
+    assertEquals(
+        Map.of(Status.REWRITTEN, 2, Status.SKIPPED, 0, Status.IGNORED, ignored, Status.DELETED, 0),
+        Rewriter.rewrite(classes, "java.lang.String"));
+  }
+
+  @Test
+  public void regenerateWhenKeyTypesChange(@TempDir Path directory) throws IOException, URISyntaxException {
+    var classes = copyRecordMapClasses(directory);
+    var ignored = ignored(classes);
+    Rewriter.rewrite(classes, "java.lang.String", "java.lang.Integer");
+    assertEquals(List.of(PACKAGE + "StringKeyRecordMap", PACKAGE + "IntegerKeyRecordMap"), generatedNestMembers(classes));
+
+    // RecordMap has new nest members, so all the specializations are generated again
+    assertEquals(
+        Map.of(Status.REWRITTEN, 4, Status.SKIPPED, ignored, Status.IGNORED, 0, Status.DELETED, 0),
+        Rewriter.rewrite(classes, "java.lang.String", "java.lang.Integer", "java.lang.Double"));
+    assertEquals(
+        List.of(PACKAGE + "StringKeyRecordMap", PACKAGE + "IntegerKeyRecordMap", PACKAGE + "DoubleKeyRecordMap"),
+        generatedNestMembers(classes));
+
+    assertEquals(
+        Map.of(Status.REWRITTEN, 2, Status.SKIPPED, ignored, Status.IGNORED, 0, Status.DELETED, 2),
+        Rewriter.rewrite(classes, "java.lang.Double"));
+    assertAll(
+        () -> assertEquals(List.of(PACKAGE + "DoubleKeyRecordMap"), generatedNestMembers(classes)),
+        () -> assertFalse(Files.exists(classes.resolve(PACKAGE + "StringKeyRecordMap.class"))),
+        () -> assertFalse(Files.exists(classes.resolve(PACKAGE + "IntegerKeyRecordMap.class"))),
+        () -> assertTrue(Files.exists(classes.resolve(PACKAGE + "DoubleKeyRecordMap.class")))
+    );
+  }
+
+  @Test
+  public void noDuplicateNestMembers(@TempDir Path directory) throws IOException, URISyntaxException {
+    var classes = copyRecordMapClasses(directory);
+    var expected = nestMembers(classes).stream().filter(nestMember -> nestMember.contains("$")).count() + 1;
+    Rewriter.rewrite(classes, "java.lang.String");
+    Files.delete(directory.resolve("rewriter-cache.properties"));
+    Rewriter.rewrite(classes, "java.lang.String");
+    var nestMembers = nestMembers(classes);
+    assertAll(
+        () -> assertEquals(expected, nestMembers.size()),
+        () -> assertEquals(nestMembers.size(), Set.copyOf(nestMembers).size())
+    );
+  }
+
+  @Test
+  public void specializeWithoutHelpers() throws IOException {
+    byte[] bytecode;
+    try (var inputStream = ShardedRecordMap.class.getResourceAsStream("ShardedRecordMap.class")) {
+      bytecode = inputStream.readAllBytes();
+    }
+    assertThrows(IllegalStateException.class, () -> Rewriter.specialize(bytecode, String.class));
+  }
+
+  @Test
+  public void specialize() throws IOException {
+    byte[] bytecode;
+    try (var inputStream = RecordMap.class.getResourceAsStream("RecordMap.class")) {
+      bytecode = inputStream.readAllBytes();
+    }
+    var methods = new ArrayList<String>();
+    new ClassReader(Rewriter.specialize(bytecode, String.class)).accept(new ClassVisitor(Opcodes.ASM9) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        methods.add(name);
+        return null;
+      }
+    }, 0);
+    assertEquals(2, methods.stream().filter(name -> name.equals("getOrDefault")).count());
+    assertEquals(2, methods.stream().filter(name -> name.equals("containsKey")).count());
+  }
+}
@@ -0,0 +1,176 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedRecordMapTest {
+  @Test
+  public void putAndGet() {
+    var map = new ShardedRecordMap<String, Integer>();
+    assertNull(map.put("foo", 1));
+    assertNull(map.put("bar", 2));
+    assertEquals(1, map.put("foo", 3));
+    assertAll(
+        () -> assertEquals(2L, map.size()),
+        () -> assertEquals(3, map.get("foo")),
+        () -> assertEquals(2, map.get("bar")),
+        () -> assertNull(map.get("baz")),
+        () -> assertEquals(-1, map.getOrDefault("baz", -1)),
+        () -> assertTrue(map.containsKey("bar")),
+        () -> assertFalse(map.containsKey("baz")),
+        () -> assertFalse(map.isEmpty())
+    );
+  }
+
+  @Test
+  public void putALot() {
+    var map = new ShardedRecordMap<Integer, Integer>(16, 0);
+    range(0, 200_000).forEach(i -> map.put(i, i));
+    assertEquals(200_000L, map.size());
+    for (var i = 0; i < 200_000; i++) {
+      assertEquals(i, map.get(i));
+    }
+  }
+
+  @Test
+  public void keysAreSpreadOnShards() {
+    var map = new ShardedRecordMap<Integer, Integer>(8, 0);
+    range(0, 80_000).forEach(i -> map.put(i, i));
+    for (var i = 0; i < map.shardCount(); i++) {
+      var size = map.shard(i).size();
+      assertTrue(size > 8_000 && size < 12_000, "shard " + i + " size " + size);
+    }
+  }
+
+  @Test
+  public void shardCount() {
+    assertAll(
+        () -> assertEquals(64, new ShardedRecordMap<String, String>().shardCount()),
+        () -> assertEquals(1, new ShardedRecordMap<String, String>(1, 10).shardCount()),
+        () -> assertEquals(8, new ShardedRecordMap<String, String>(5, 10).shardCount()),
+        () -> assertThrows(IllegalArgumentException.class, () -> new ShardedRecordMap<String, String>(0, 10)),
+        () -> assertThrows(IllegalArgumentException.class, () -> new ShardedRecordMap<String, String>(4, -1)),
+        () -> assertThrows(IllegalArgumentException.class, () -> new ShardedRecordMap<String, String>(1, 1L << 30))
+    );
+  }
+
+  @Test
+  public void oneShard() {
+    var map = new ShardedRecordMap<Integer, String>(1, 100);
+    range(0, 100).forEach(i -> map.put(i, "" + i));
+    assertEquals(100, map.shard(0).size());
+    assertEquals("42", map.get(42));
+  }
+
+  @Test
+  public void presized() {
+    var map = new ShardedRecordMap<Integer, Integer>(4, 1_000);
+    range(0, 1_000).forEach(i -> map.put(i, i));
+    var rehashCount = 0;
+    for (var i = 0; i < map.shardCount(); i++) {
+      rehashCount += map.shard(i).stats().rehashCount();
+    }
+    // the keys are not exactly evenly distributed
+    assertTrue(rehashCount <= map.shardCount(), "rehash count " + rehashCount);
+  }
+
+  @Test
+  public void updates() {
+    var map = new ShardedRecordMap<String, Integer>(4, 0);
+    assertAll(
+        () -> assertNull(map.putIfAbsent("foo", 1)),
+        () -> assertEquals(1, map.putIfAbsent("foo", 2)),
+        () -> assertEquals(3, map.merge("foo", 2, Integer::sum)),
+        () -> assertEquals(30, map.compute("foo", (key, value) -> value * 10)),
+        () -> assertEquals(3, map.computeIfAbsent("bar", String::length)),
+        () -> assertEquals(3, map.computeIfAbsent("bar", key -> 42))
+    );
+  }
+
+  @Test
+  public void iteration() {
+    var map = new ShardedRecordMap<Integer, Integer>(16, 0);
+    range(0, 1_000).forEach(i -> map.put(i, -i));
+    var entries = new ArrayList<RecordEntry<Integer, Integer>>();
+    for (var entry : map) {
+      entries.add(entry);
+    }
+    var keys = new HashSet<Integer>();
+    map.forEach((key, value) -> {
+      assertEquals(-key, value);
+      keys.add(key);
+    });
+    var expected = new ArrayList<RecordEntry<Integer, Integer>>();
+    for (var i = 0; i < map.shardCount(); i++) {
+      for (var entry : map.shard(i)) {
+        expected.add(entry);
+      }
+    }
+    assertAll(
+        () -> assertEquals(expected, entries),
+        () -> assertEquals(1_000, keys.size())
+    );
+  }
+
+  @Test
+  public void iteratorEmpty() {
+    var map = new ShardedRecordMap<Integer, Integer>(4, 0);
+    var iterator = map.iterator();
+    assertFalse(iterator.hasNext());
+    assertThrows(NoSuchElementException.class, iterator::next);
+  }
+
+  @Test
+  public void parallelBulkOperations() {
+    var map = new ShardedRecordMap<Integer, Integer>(32, 100_000);
+    range(0, 100_000).forEach(i -> map.put(i, i));
+    map.parallelReplaceAll((key, value) -> value * 2);
+    var sum = new LongAdder();
+    map.parallelForEach((key, value) -> sum.add(value));
+    assertEquals(2L * (99_999L * 100_000L / 2), sum.sum());
+
+    assertTrue(map.parallelRemoveIf((key, value) -> key % 2 == 1));
+    assertFalse(map.parallelRemoveIf((key, value) -> key % 2 == 1));
+    assertAll(
+        () -> assertEquals(50_000L, map.size()),
+        () -> assertEquals(84, map.get(42)),
+        () -> assertNull(map.get(43))
+    );
+  }
+
+  @Test
+  public void removeIfAndClear() {
+    var map = new ShardedRecordMap<Integer, Integer>(4, 0);
+    range(0, 100).forEach(i -> map.put(i, i));
+    assertTrue(map.removeIf((key, value) -> key >= 10));
+    assertEquals(10L, map.size());
+    map.clear();
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void testToString() {
+    var map = new ShardedRecordMap<String, Integer>(1, 0);
+    map.put("foo", 1);
+    map.put("bar", 2);
+    assertEquals("{foo=1, bar=2}", map.toString());
+  }
+
+  @Test
+  public void nullKey() {
+    var map = new ShardedRecordMap<String, Integer>();
+    assertAll(
+        () -> assertThrows(NullPointerException.class, () -> map.put(null, 1)),
+        () -> assertThrows(NullPointerException.class, () -> map.get(null)),
+        () -> assertThrows(NullPointerException.class, () -> map.parallelForEach(null))
+    );
+  }
+}
@@ -0,0 +1,121 @@
+package com.github.forax.recordmap;
+
+import com.github.forax.recordmap.RecordMap.RecordEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SortedIndexTest {
+  private static List<Integer> keys(List<RecordEntry<Integer, String>> entries) {
+    return entries.stream().map(RecordEntry::key).toList();
+  }
+
+  @Test
+  public void entries() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    map.put("bar", 2);
+    map.put("baz", 3);
+    var index = map.sortedIndex(Comparator.naturalOrder());
+    assertEquals(
+        List.of(RecordEntry.of("bar", 2), RecordEntry.of("baz", 3), RecordEntry.of("foo", 1)),
+        index.entries());
+  }
+
+  @Test
+  public void entriesReversed() {
+    var map = new RecordMap<String, Integer>();
+    map.put("foo", 1);
+    map.put("bar", 2);
+    map.put("baz", 3);
+    var index = map.sortedIndex(Comparator.<String>reverseOrder());
+    assertEquals(List.of("foo", "baz", "bar"), index.entries().stream().map(RecordEntry::key).toList());
+  }
+
+  @Test
+  public void ranges() {
+    var map = new RecordMap<Integer, String>();
+    range(0, 100).map(i -> (i * 37) % 100).forEach(i -> map.put(i * 2, "" + i));
+    var index = map.sortedIndex(Comparator.naturalOrder());
+    assertAll(
+        () -> assertEquals(List.of(10, 12, 14), keys(index.subMap(10, 16))),
+        () -> assertEquals(List.of(10, 12, 14, 16), keys(index.subMap(10, true, 16, true))),
+        () -> assertEquals(List.of(12, 14), keys(index.subMap(10, false, 16, false))),
+        () -> assertEquals(List.of(12, 14), keys(index.subMap(11, 15))),
+        () -> assertEquals(List.of(), keys(index.subMap(16, 10))),
+        () -> assertEquals(List.of(0, 2), keys(index.headMap(4))),
+        () -> assertEquals(List.of(0, 2, 4), keys(index.headMap(4, true))),
+        () -> assertEquals(List.of(196, 198), keys(index.tailMap(196))),
+        () -> assertEquals(List.of(198), keys(index.tailMap(196, false))),
+        () -> assertEquals(List.of(), keys(index.tailMap(1_000))),
+        () -> assertEquals("7", index.subMap(14, 15).get(0).value())
+    );
+  }
+
+  @Test
+  public void topN() {
+    var map = new RecordMap<Integer, Integer>();
+    range(0, 1_000).forEach(i -> map.put((i * 7_919) % 1_000, i));
+    var entries = map.sortedIndex(Comparator.<Integer>naturalOrder()).entries();
+    assertEquals(List.of(999, 998, 997), entries.reversed().subList(0, 3).stream().map(RecordEntry::key).toList());
+  }
+
+  @Test
+  public void updatedOnPut() {
+    var map = new RecordMap<Integer, String>();
+    var index = map.sortedIndex(Comparator.naturalOrder());
+    assertEquals(List.of(), index.entries());
+    map.put(5, "five");
+    map.put(1, "one");
+    var before = index.entries();
+    map.put(3, "three");
+    map.put(1, "ONE");
+    assertAll(
+        () -> assertEquals(List.of(1, 5), keys(before)),
+        () -> assertEquals(List.of(1, 3, 5), keys(index.entries())),
+        () -> assertEquals("ONE", index.entries().get(0).value())
+    );
+  }
+
+  @Test
+  public void updatedOnRemove() {
+    var map = new RecordMap<Integer, String>();
+    range(0, 10).forEach(i -> map.put(9 - i, "" + i));
+    var index = map.sortedIndex(Comparator.naturalOrder());
+    assertEquals(10, index.entries().size());
+    map.removeIf((key, value) -> key % 2 == 0);
+    assertEquals(List.of(1, 3, 5, 7, 9), keys(index.entries()));
+    map.clear();
+    map.put(42, "42");
+    assertEquals(List.of(42), keys(index.entries()));
+  }
+
+  @Test
+  public void incrementalUpdates() {
+    var random = new Random(0);
+    var map = new RecordMap<Integer, Integer>();
+    var index = map.sortedIndex(Comparator.naturalOrder());
+    for (var round = 0; round < 20; round++) {
+      random.ints(1_000, 0, 1_000_000).forEach(i -> map.put(i, i));
+      var sorted = map.keySet().stream().sorted().toList();
+      assertEquals(sorted, index.entries().stream().map(RecordEntry::key).toList());
+    }
+  }
+
+  @Test
+  public void nullBounds() {
+    var map = new RecordMap<Integer, String>();
+    var index = map.sortedIndex(Comparator.naturalOrder());
+    assertAll(
+        () -> assertThrows(NullPointerException.class, () -> map.sortedIndex(null)),
+        () -> assertThrows(NullPointerException.class, () -> index.subMap(null, 3)),
+        () -> assertThrows(NullPointerException.class, () -> index.headMap(null)),
+        () -> assertThrows(NullPointerException.class, () -> index.tailMap(null))
+    );
+  }
+}
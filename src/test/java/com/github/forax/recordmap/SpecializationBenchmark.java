@@ -0,0 +1,86 @@
+package com.github.forax.recordmap;
+
+import java.lang.reflect.Array;
+import java.util.function.IntFunction;
+
+/**
+ * Measures {@link RecordMap#get(Object)} on a plain RecordMap and on a map created by
+ * {@link RecordMap#ofKeyType(Class)} once the profile of the lookups is polluted.
+ *
+ * The lookups are first run with String, Integer and Long keys, so the calls to
+ * {@code hashCode()} and {@code equals()} inside the shared lookup code of RecordMap
+ * see the three key types, then each map is measured with its own key type.
+ * Only the lookups are specialized, put(), merge() and compute() still use the shared call sites.
+ *
+ * Usage: {@code SpecializationBenchmark [size]}, by default 100_000.
+ */
+public class SpecializationBenchmark {
+  private static final int ROUNDS = 20;
+
+  @SuppressWarnings("unchecked")
+  private static <K> K[] keys(Class<K> keyType, int size, IntFunction<K> keyFactory) {
+    var keys = (K[]) Array.newInstance(keyType, size);
+    for (var i = 0; i < size; i++) {
+      keys[i] = keyFactory.apply(i);
+    }
+    return keys;
+  }
+
+  private static <K> RecordMap<K, Integer> fill(RecordMap<K, Integer> map, K[] keys) {
+    for (var i = 0; i < keys.length; i++) {
+      map.put(keys[i], i);
+    }
+    return map;
+  }
+
+  private static <K> long lookups(RecordMap<K, Integer> map, K[] keys) {
+    var sum = 0L;
+    for (var key : keys) {
+      sum += map.get(key);
+    }
+    return sum;
+  }
+
+  // best time of ROUNDS rounds in ns per lookup
+  private static <K> double measure(RecordMap<K, Integer> map, K[] keys) {
+    var best = Long.MAX_VALUE;
+    var sum = 0L;
+    for (var round = 0; round < ROUNDS; round++) {
+      var start = System.nanoTime();
+      sum += lookups(map, keys);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    if (sum == 42) {
+      System.out.println();
+    }
+    return best / (double) keys.length;
+  }
+
+  private static <K> void report(String name, Class<K> keyType, K[] keys) {
+    var plain = fill(new RecordMap<K, Integer>(), keys);
+    var specialized = fill(RecordMap.<K, Integer>ofKeyType(keyType), keys);
+    System.out.printf("%-8s plain: %6.2f ns/get, ofKeyType (%s): %6.2f ns/get%n",
+        name, measure(plain, keys), specialized.getClass().getSimpleName(), measure(specialized, keys));
+  }
+
+  public static void main(String[] args) {
+    var size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    var strings = keys(String.class, size, i -> "key" + i);
+    var integers = keys(Integer.class, size, i -> i * 31);
+    var longs = keys(Long.class, size, i -> i * 31L);
+
+    // pollute the profile of the shared lookup code with the three key types
+    var stringMap = fill(new RecordMap<String, Integer>(), strings);
+    var integerMap = fill(new RecordMap<Integer, Integer>(), integers);
+    var longMap = fill(new RecordMap<Long, Integer>(), longs);
+    for (var i = 0; i < 50; i++) {
+      lookups(stringMap, strings);
+      lookups(integerMap, integers);
+      lookups(longMap, longs);
+    }
+
+    report("String", String.class, strings);
+    report("Integer", Integer.class, integers);
+    report("Long", Long.class, longs);
+  }
+}